@@ -0,0 +1,457 @@
+package com.aeroheart.owlery.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a ModelBinder for every model class with JSONField fields. The binder of a model
+ * named Foo is called Foo$$JSONBinder, lives in the same package and reads and writes the fields
+ * directly, so ModelBinders picks it up instead of falling back to reflection.
+ * 
+ * The generated code accesses the fields from outside the model, so they must not be private and
+ * fields inherited from a class of another package must be public. Models which don't meet that
+ * are skipped with a warning and keep using ReflectiveModelBinder. Fields of a type no binder
+ * supports are reported as errors.
+ * 
+ * @author aeroheart.c6
+ */
+@SupportedAnnotationTypes(JSONBinderProcessor.JSON_FIELD)
+public class JSONBinderProcessor extends AbstractProcessor {
+    public static final String JSON_FIELD = "com.aeroheart.owlery.model.JSONField";
+    public static final String MODEL      = "com.aeroheart.owlery.model.Model";
+    public static final String SUFFIX     = "$$JSONBinder";
+    
+    protected static final String VALUES  = "com.aeroheart.owlery.model.JSONValues";
+    
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+    
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        TypeElement      annotation = this.processingEnv.getElementUtils().getTypeElement(
+            JSONBinderProcessor.JSON_FIELD
+        );
+        Set<TypeElement> models     = new LinkedHashSet<TypeElement>();
+        
+        if (annotation == null)
+            return false;
+        
+        for (Element field : round.getElementsAnnotatedWith(annotation))
+            if (field.getKind() == ElementKind.FIELD)
+                models.add((TypeElement)field.getEnclosingElement());
+        
+        for (TypeElement model : models)
+            this.generate(model);
+        
+        return true;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Generation
+     ***********************************************************************************************
+     */
+    protected void generate(TypeElement model) {
+        Map<String, Property> properties = this.collectProperties(model);
+        String                packageName,
+                              binderName;
+        Writer                writer;
+        
+        if (properties == null)
+            return;
+        
+        packageName = this.getPackage(model).getQualifiedName().toString();
+        binderName  = this.processingEnv.getElementUtils().getBinaryName(model).toString();
+        binderName  = (packageName.isEmpty() ? binderName :
+                                               binderName.substring(packageName.length() + 1))
+                    + JSONBinderProcessor.SUFFIX;
+        
+        try {
+            writer = this.processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? binderName : packageName + "." + binderName,
+                model
+            ).openWriter();
+            
+            try {
+                writer.write(this.buildSource(model, packageName, binderName, properties));
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException exception) {
+            this.processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR,
+                "Cannot write the binder of " + model + ": " + exception.getMessage(),
+                model
+            );
+        }
+    }
+    
+    protected String buildSource(
+        TypeElement model, String packageName, String binderName,
+        Map<String, Property> properties
+    ) {
+        StringBuilder source    = new StringBuilder();
+        String        modelName = model.getQualifiedName().toString();
+        List<String>  nullable  = new ArrayList<String>();
+        boolean       first     = true;
+        
+        for (Map.Entry<String, Property> entry : properties.entrySet())
+            if (!entry.getValue().type.getKind().isPrimitive())
+                nullable.add(entry.getKey());
+        
+        source.append("// Generated by ").append(this.getClass().getName())
+              .append(". Do not edit.\n");
+        
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        
+        source.append("public class ").append(binderName)
+              .append(" implements com.aeroheart.owlery.model.ModelBinder<")
+              .append(modelName).append("> {\n");
+        
+        // read()
+        source.append("    public ").append(modelName).append(" read(")
+              .append("android.util.JsonReader reader, ").append(modelName).append(" model)\n")
+              .append("        throws java.io.IOException {\n")
+              .append("        reader.beginObject();\n")
+              .append("        while (reader.hasNext()) {\n")
+              .append("            String name = reader.nextName();\n")
+              .append("            \n")
+              .append("            if (reader.peek() == android.util.JsonToken.NULL) {\n")
+              .append("                reader.nextNull();\n");
+        
+        for (int idx = 0; idx < nullable.size(); idx++)
+            source.append(idx == 0 ? "                if" : "                else if")
+                  .append(" (name.equals(").append(this.quote(nullable.get(idx))).append("))\n")
+                  .append("                    ")
+                  .append(properties.get(nullable.get(idx)).access).append(" = null;\n");
+        
+        source.append("                continue;\n")
+              .append("            }\n")
+              .append("            \n");
+        
+        for (Map.Entry<String, Property> entry : properties.entrySet()) {
+            source.append(first ? "            if" : "            else if")
+                  .append(" (name.equals(").append(this.quote(entry.getKey())).append("))\n")
+                  .append("                ").append(entry.getValue().access).append(" = ")
+                  .append(entry.getValue().reader).append(";\n");
+            
+            first = false;
+        }
+        
+        source.append(first ? "            " : "            else\n                ")
+              .append("reader.skipValue();\n")
+              .append("        }\n")
+              .append("        reader.endObject();\n")
+              .append("        \n")
+              .append("        return model;\n")
+              .append("    }\n")
+              .append("    \n");
+        
+        // write()
+        source.append("    public void write(android.util.JsonWriter writer, ")
+              .append(modelName).append(" model)\n")
+              .append("        throws java.io.IOException {\n")
+              .append("        writer.beginObject();\n");
+        
+        for (Map.Entry<String, Property> entry : properties.entrySet()) {
+            Property property = entry.getValue();
+            
+            source.append("        writer.name(").append(this.quote(entry.getKey())).append(");\n");
+            
+            if (property.type.getKind().isPrimitive())
+                source.append("        writer.value(").append(property.access).append(");\n");
+            else
+                source.append("        ").append(JSONBinderProcessor.VALUES)
+                      .append(".writeValue(writer, ").append(property.access).append(");\n");
+        }
+        
+        source.append("        writer.endObject();\n")
+              .append("    }\n")
+              .append("}\n");
+        
+        return source.toString();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Introspection
+     ***********************************************************************************************
+     */
+    /**
+     * Collects the JSONField fields of the model and its superclasses, those of the model winning
+     * over those of the same JSON name in its superclasses like in ReflectiveModelBinder
+     * 
+     * @param model
+     * 
+     * @return the fields by JSON name, or null if no binder can be generated for the model
+     */
+    protected Map<String, Property> collectProperties(TypeElement model) {
+        Map<String, Property> properties = new LinkedHashMap<String, Property>();
+        PackageElement        modelPackage = this.getPackage(model);
+        boolean               valid        = true;
+        
+        if (!this.isAccessible(model) || !model.getTypeParameters().isEmpty()) {
+            this.warn(model, model + " is private or generic");
+            return null;
+        }
+        
+        for (TypeElement type = model; type != null; type = this.getSuperclass(type)) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                String   name = this.getJSONName(field);
+                Property property;
+                
+                if (name == null || field.getModifiers().contains(Modifier.STATIC) ||
+                    properties.containsKey(name))
+                    continue;
+                
+                if (field.getModifiers().contains(Modifier.PRIVATE) ||
+                    !field.getModifiers().contains(Modifier.PUBLIC) &&
+                    !this.getPackage(type).equals(modelPackage)) {
+                    this.warn(model, field + " of " + type + " is not accessible");
+                    return null;
+                }
+                
+                property = this.createProperty(model, type, field);
+                
+                if (property == null)
+                    valid = false;
+                else
+                    properties.put(name, property);
+            }
+        }
+        
+        return valid ? properties : null;
+    }
+    
+    protected Property createProperty(TypeElement model, TypeElement owner, VariableElement field) {
+        TypeMirror type   = field.asType();
+        String     reader = this.getReader(type);
+        String     access = owner.equals(model) ?
+                            "model." + field.getSimpleName() :
+                            "((" + owner.getQualifiedName() + ")model)." + field.getSimpleName();
+        
+        if (reader == null) {
+            this.processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR,
+                "Unsupported type of JSONField field " + field + " of " + owner,
+                field
+            );
+            
+            return null;
+        }
+        
+        return new Property(type, access, reader);
+    }
+    
+    /**
+     * @param type
+     * 
+     * @return the expression reading a value of the type from the reader, or null if the type is
+     *         not supported
+     */
+    protected String getReader(TypeMirror type) {
+        String      method = this.getReaderMethod(type);
+        DeclaredType declared;
+        TypeMirror   element;
+        
+        if (method != null)
+            return JSONBinderProcessor.VALUES + "." + method + "(reader)";
+        
+        if (type.getKind() != TypeKind.DECLARED)
+            return null;
+        
+        declared = (DeclaredType)type;
+        
+        if (this.isModel(type))
+            return JSONBinderProcessor.VALUES + ".readModel(reader, " +
+                   this.getClassName(declared) + ".class)";
+        
+        if (!this.getClassName(declared).equals("java.util.List") ||
+            declared.getTypeArguments().size() != 1)
+            return null;
+        
+        element = declared.getTypeArguments().get(0);
+        
+        // Lists of String, boxed primitives or models
+        if (element.getKind() != TypeKind.DECLARED ||
+            this.getReaderMethod(element) == null && !this.isModel(element))
+            return null;
+        
+        return JSONBinderProcessor.VALUES + ".readList(reader, " +
+               this.getClassName((DeclaredType)element) + ".class)";
+    }
+    
+    /**
+     * @param type
+     * 
+     * @return the JSONValues method reading a String or a (boxed) primitive of the type
+     */
+    protected String getReaderMethod(TypeMirror type) {
+        String name;
+        
+        switch (type.getKind()) {
+            case BOOLEAN: return "readBoolean";
+            case INT:     return "readInt";
+            case LONG:    return "readLong";
+            case DOUBLE:  return "readDouble";
+            case FLOAT:   return "readFloat";
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+        
+        name = this.getClassName((DeclaredType)type);
+        
+        if (name.equals("java.lang.String"))
+            return "readString";
+        if (name.equals("java.lang.Boolean"))
+            return "readBoolean";
+        if (name.equals("java.lang.Integer"))
+            return "readInt";
+        if (name.equals("java.lang.Long"))
+            return "readLong";
+        if (name.equals("java.lang.Double"))
+            return "readDouble";
+        if (name.equals("java.lang.Float"))
+            return "readFloat";
+        
+        return null;
+    }
+    
+    protected boolean isModel(TypeMirror type) {
+        TypeElement model = this.processingEnv.getElementUtils().getTypeElement(
+            JSONBinderProcessor.MODEL
+        );
+        
+        return model != null && this.processingEnv.getTypeUtils().isAssignable(
+            this.processingEnv.getTypeUtils().erasure(type),
+            model.asType()
+        );
+    }
+    
+    /**
+     * @param field
+     * 
+     * @return the JSON name the field is annotated with, or null if it isn't
+     */
+    protected String getJSONName(VariableElement field) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement)annotation.getAnnotationType().asElement();
+            
+            if (!type.getQualifiedName().contentEquals(JSONBinderProcessor.JSON_FIELD))
+                continue;
+            
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+                 annotation.getElementValues().entrySet())
+                if (value.getKey().getSimpleName().contentEquals("value"))
+                    return (String)value.getValue().getValue();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @param type
+     * 
+     * @return true if the type and the types it's nested in are not private
+     */
+    protected boolean isAccessible(TypeElement type) {
+        for (Element element = type; element instanceof TypeElement;
+             element = element.getEnclosingElement())
+            if (element.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        
+        return true;
+    }
+    
+    protected TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        
+        if (superclass.getKind() != TypeKind.DECLARED)
+            return null;
+        
+        type = (TypeElement)((DeclaredType)superclass).asElement();
+        
+        return type.getQualifiedName().contentEquals("java.lang.Object") ? null : type;
+    }
+    
+    protected PackageElement getPackage(Element element) {
+        return this.processingEnv.getElementUtils().getPackageOf(element);
+    }
+    
+    protected String getClassName(DeclaredType type) {
+        return ((TypeElement)type.asElement()).getQualifiedName().toString();
+    }
+    
+    protected String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        
+        for (char character : value.toCharArray()) {
+            if (character == '"' || character == '\\')
+                builder.append('\\').append(character);
+            else if (character < 0x20 || character > 0x7e)
+                builder.append(String.format("\\u%04x", (int)character));
+            else
+                builder.append(character);
+        }
+        
+        return builder.append('"').toString();
+    }
+    
+    protected void warn(TypeElement model, String reason) {
+        this.processingEnv.getMessager().printMessage(
+            Diagnostic.Kind.WARNING,
+            "No JSON binder generated, " + reason + ". The model will be bound through reflection",
+            model
+        );
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Property
+     ***********************************************************************************************
+     */
+    protected static class Property {
+        protected TypeMirror type;
+        protected String     access;
+        protected String     reader;
+        
+        protected Property(TypeMirror type, String access, String reader) {
+            this.type   = type;
+            this.access = access;
+            this.reader = reader;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.aeroheart.owlery;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Stops requests to hosts that keep failing so they fail fast instead of each waiting on its own
+ * connection to fail. Every host has its own circuit:
+ * 
+ * CLOSED lets every request through and records the outcome of the last calls in a sliding
+ * window. Once the window holds enough calls and either the rate of failed calls or the rate of
+ * slow calls reaches its threshold, the circuit opens.
+ * 
+ * OPEN rejects every request until the open duration has passed, after which the circuit becomes
+ * half-open.
+ * 
+ * HALF_OPEN lets a limited number of trial requests through. The circuit opens again as soon as
+ * one of them fails or is slow, and closes once all of them succeeded.
+ * 
+ * A call fails when it gets no response, times out or gets a 5xx status. Cancelled calls and
+ * responses served from the cache are not recorded.
+ * 
+ * @author aeroheart.c6
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+    
+    public static final int    DEFAULT_WINDOW_SIZE         = 20;
+    public static final int    DEFAULT_MIN_CALLS           = 10;
+    public static final double DEFAULT_FAILURE_RATE        = 0.5;
+    public static final long   DEFAULT_SLOW_CALL_DURATION  = 10000;
+    public static final double DEFAULT_SLOW_CALL_RATE      = 0.8;
+    public static final long   DEFAULT_OPEN_DURATION       = 30000;
+    public static final int    DEFAULT_HALF_OPEN_CALLS     = 3;
+    
+    protected int                  windowSize;
+    protected int                  minCalls;
+    protected double               failureRate;
+    protected long                 slowCallDuration;
+    protected double               slowCallRate;
+    protected long                 openDuration;
+    protected int                  halfOpenCalls;
+    
+    protected Map<String, Circuit> circuits;
+    protected List<Listener>       listeners;
+    
+    public CircuitBreaker() {
+        this.windowSize       = CircuitBreaker.DEFAULT_WINDOW_SIZE;
+        this.minCalls         = CircuitBreaker.DEFAULT_MIN_CALLS;
+        this.failureRate      = CircuitBreaker.DEFAULT_FAILURE_RATE;
+        this.slowCallDuration = CircuitBreaker.DEFAULT_SLOW_CALL_DURATION;
+        this.slowCallRate     = CircuitBreaker.DEFAULT_SLOW_CALL_RATE;
+        this.openDuration     = CircuitBreaker.DEFAULT_OPEN_DURATION;
+        this.halfOpenCalls    = CircuitBreaker.DEFAULT_HALF_OPEN_CALLS;
+        
+        this.circuits  = new HashMap<String, Circuit>();
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Configuration
+     ***********************************************************************************************
+     */
+    /**
+     * Sets the number of recent calls the rates are computed over. Changing it resets the windows
+     * of every host.
+     * 
+     * @param windowSize the number of calls kept per host
+     * @param minCalls   the number of calls a window needs before the circuit can open
+     * 
+     * @return the current instance
+     */
+    public synchronized CircuitBreaker setWindow(int windowSize, int minCalls) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("The window must hold at least 1 call");
+        
+        this.windowSize = windowSize;
+        this.minCalls   = Math.max(1, Math.min(windowSize, minCalls));
+        this.circuits.clear();
+        
+        return this;
+    }
+    
+    /**
+     * @param rate the fraction of failed calls, between 0 and 1, which opens the circuit
+     * 
+     * @return the current instance
+     */
+    public synchronized CircuitBreaker setFailureRate(double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+    
+    /**
+     * @param duration the time in milliseconds after which a call counts as slow
+     * @param rate     the fraction of slow calls, between 0 and 1, which opens the circuit
+     * 
+     * @return the current instance
+     */
+    public synchronized CircuitBreaker setSlowCallThreshold(long duration, double rate) {
+        this.slowCallDuration = duration;
+        this.slowCallRate     = rate;
+        return this;
+    }
+    
+    /**
+     * @param duration the time in milliseconds an open circuit rejects requests for
+     * 
+     * @return the current instance
+     */
+    public synchronized CircuitBreaker setOpenDuration(long duration) {
+        this.openDuration = duration;
+        return this;
+    }
+    
+    /**
+     * @param calls the number of trial requests a half-open circuit lets through
+     * 
+     * @return the current instance
+     */
+    public synchronized CircuitBreaker setHalfOpenCalls(int calls) {
+        this.halfOpenCalls = Math.max(1, calls);
+        return this;
+    }
+    
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Introspection
+     ***********************************************************************************************
+     */
+    /**
+     * @param host
+     * 
+     * @return the state of the circuit of the host. An open circuit whose open duration has passed
+     *         stays OPEN until the next request asks to go through
+     */
+    public synchronized State getState(String host) {
+        Circuit circuit = this.circuits.get(host);
+        
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+    
+    /**
+     * Closes the circuit of the host and forgets its recent calls
+     * 
+     * @param host
+     */
+    public void reset(String host) {
+        Circuit circuit;
+        State   from;
+        
+        synchronized (this) {
+            circuit = this.circuits.remove(host);
+            from    = circuit == null ? State.CLOSED : circuit.state;
+        }
+        
+        this.notifyListeners(host, from, State.CLOSED);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Call Recording
+     ***********************************************************************************************
+     */
+    /**
+     * Asks whether a request to the host may go through. When it may, the outcome of the request
+     * must be reported through record() or, if it ends without an outcome, release().
+     * 
+     * @param host
+     * 
+     * @return false if the request should fail fast
+     */
+    public boolean allowRequest(String host) {
+        Circuit circuit;
+        State   from,
+                to;
+        boolean allowed;
+        
+        synchronized (this) {
+            circuit = this.getCircuit(host);
+            from    = circuit.state;
+            
+            if (circuit.state == State.OPEN &&
+                SystemClock.elapsedRealtime() - circuit.openedAt >= this.openDuration)
+                circuit.halfOpen();
+            
+            if (circuit.state == State.OPEN)
+                allowed = false;
+            else if (circuit.state == State.CLOSED)
+                allowed = true;
+            else {
+                allowed = circuit.trials < this.halfOpenCalls;
+                
+                if (allowed)
+                    circuit.trials++;
+            }
+            
+            to = circuit.state;
+        }
+        
+        this.notifyListeners(host, from, to);
+        
+        return allowed;
+    }
+    
+    /**
+     * Records the outcome of a request allowed through by allowRequest()
+     * 
+     * @param host
+     * @param failed   true if the request got no response, timed out or got a 5xx status
+     * @param duration the time the request took, in milliseconds
+     */
+    public void record(String host, boolean failed, long duration) {
+        Circuit circuit;
+        State   from,
+                to;
+        boolean slow;
+        
+        synchronized (this) {
+            circuit = this.getCircuit(host);
+            slow    = duration >= this.slowCallDuration;
+            from    = circuit.state;
+            
+            // Open circuits ignore the calls let through before they opened
+            if (circuit.state == State.CLOSED) {
+                circuit.add(failed, slow);
+                
+                if (circuit.count >= this.minCalls &&
+                    (circuit.failedCount >= this.failureRate * circuit.count ||
+                     circuit.slowCount >= this.slowCallRate * circuit.count))
+                    circuit.open();
+            }
+            else if (circuit.state == State.HALF_OPEN) {
+                if (failed || slow)
+                    circuit.open();
+                else if (++circuit.successes >= this.halfOpenCalls)
+                    circuit.close();
+            }
+            
+            to = circuit.state;
+        }
+        
+        this.notifyListeners(host, from, to);
+    }
+    
+    /**
+     * Gives back the permission of a request allowed through by allowRequest() which ended
+     * without an outcome, e.g. because it was cancelled
+     * 
+     * @param host
+     */
+    public synchronized void release(String host) {
+        Circuit circuit = this.circuits.get(host);
+        
+        if (circuit != null && circuit.state == State.HALF_OPEN && circuit.trials > 0)
+            circuit.trials--;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected Circuit getCircuit(String host) {
+        Circuit circuit = this.circuits.get(host);
+        
+        if (circuit == null) {
+            circuit = new Circuit(this.windowSize);
+            this.circuits.put(host, circuit);
+        }
+        
+        return circuit;
+    }
+    
+    protected void notifyListeners(String host, State from, State to) {
+        if (from == to)
+            return;
+        
+        Log.w(Constants.LOG_TAG, "Circuit of " + host + " went from " + from + " to " + to);
+        
+        for (Listener listener : this.listeners)
+            listener.onStateChange(this, host, from, to);
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Listener
+     ***********************************************************************************************
+     */
+    public static interface Listener {
+        /**
+         * Called in the thread of the request that caused the transition
+         * 
+         * @param breaker
+         * @param host
+         * @param from
+         * @param to
+         */
+        public void onStateChange(CircuitBreaker breaker, String host, State from, State to);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Circuit
+     ***********************************************************************************************
+     */
+    /**
+     * The state of a single host along with the outcomes of its last calls, kept in a ring buffer
+     */
+    protected static class Circuit {
+        protected static final byte FAILED = 1;
+        protected static final byte SLOW   = 2;
+        
+        protected State  state;
+        protected byte[] outcomes;
+        protected int    count;
+        protected int    next;
+        protected int    failedCount;
+        protected int    slowCount;
+        protected long   openedAt;
+        protected int    trials;
+        protected int    successes;
+        
+        protected Circuit(int windowSize) {
+            this.outcomes = new byte[windowSize];
+            this.close();
+        }
+        
+        protected void add(boolean failed, boolean slow) {
+            byte outcome = (byte)((failed ? Circuit.FAILED : 0) | (slow ? Circuit.SLOW : 0));
+            
+            // Drop the oldest outcome once the window is full
+            if (this.count == this.outcomes.length) {
+                if ((this.outcomes[this.next] & Circuit.FAILED) != 0)
+                    this.failedCount--;
+                
+                if ((this.outcomes[this.next] & Circuit.SLOW) != 0)
+                    this.slowCount--;
+            }
+            else {
+                this.count++;
+            }
+            
+            this.outcomes[this.next] = outcome;
+            this.next = (this.next + 1) % this.outcomes.length;
+            
+            if (failed)
+                this.failedCount++;
+            
+            if (slow)
+                this.slowCount++;
+        }
+        
+        protected void open() {
+            this.state    = State.OPEN;
+            this.openedAt = SystemClock.elapsedRealtime();
+        }
+        
+        protected void halfOpen() {
+            this.state     = State.HALF_OPEN;
+            this.trials    = 0;
+            this.successes = 0;
+        }
+        
+        protected void close() {
+            this.state       = State.CLOSED;
+            this.count       = 0;
+            this.next        = 0;
+            this.failedCount = 0;
+            this.slowCount   = 0;
+        }
+    }
+}
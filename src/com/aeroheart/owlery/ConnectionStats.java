@@ -0,0 +1,102 @@
+package com.aeroheart.owlery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what happens to connections once their request is done. A connection is released when
+ * its response body was read to the end and closed, which lets the platform hand the socket to
+ * the next request to the same host. It is disconnected otherwise, closing the socket so the next
+ * request has to connect (and handshake) again.
+ * 
+ * Comparing the released count with the number of connections a server accepted shows how many
+ * handshakes were saved.
+ * 
+ * @author aeroheart.c6
+ */
+public class ConnectionStats {
+    protected static ConnectionStats defaultStats;
+    
+    public static synchronized ConnectionStats getDefault() {
+        if (ConnectionStats.defaultStats == null)
+            ConnectionStats.defaultStats = new ConnectionStats();
+        
+        return ConnectionStats.defaultStats;
+    }
+    
+    
+    protected AtomicLong openedCount;
+    protected AtomicLong releasedCount;
+    protected AtomicLong disconnectedCount;
+    protected AtomicLong cancelledCount;
+    protected AtomicLong drainedBytes;
+    
+    public ConnectionStats() {
+        this.openedCount       = new AtomicLong(0);
+        this.releasedCount     = new AtomicLong(0);
+        this.disconnectedCount = new AtomicLong(0);
+        this.cancelledCount    = new AtomicLong(0);
+        this.drainedBytes      = new AtomicLong(0);
+    }
+    
+    /**
+     * @return the number of connections opened by requests
+     */
+    public long getOpenedCount() {
+        return this.openedCount.get();
+    }
+    
+    /**
+     * @return the number of connections left open for reuse
+     */
+    public long getReleasedCount() {
+        return this.releasedCount.get();
+    }
+    
+    /**
+     * @return the number of connections closed after their request, including cancelled ones
+     */
+    public long getDisconnectedCount() {
+        return this.disconnectedCount.get();
+    }
+    
+    /**
+     * @return the number of connections closed because their request was cancelled
+     */
+    public long getCancelledCount() {
+        return this.cancelledCount.get();
+    }
+    
+    /**
+     * @return the number of unread body bytes skipped so that connections could be released
+     */
+    public long getDrainedBytes() {
+        return this.drainedBytes.get();
+    }
+    
+    public void reset() {
+        this.openedCount.set(0);
+        this.releasedCount.set(0);
+        this.disconnectedCount.set(0);
+        this.cancelledCount.set(0);
+        this.drainedBytes.set(0);
+    }
+    
+    protected void recordOpened() {
+        this.openedCount.incrementAndGet();
+    }
+    
+    protected void recordReleased() {
+        this.releasedCount.incrementAndGet();
+    }
+    
+    protected void recordDisconnected(boolean cancelled) {
+        this.disconnectedCount.incrementAndGet();
+        
+        if (cancelled)
+            this.cancelledCount.incrementAndGet();
+    }
+    
+    protected void recordDrained(long count) {
+        this.drainedBytes.addAndGet(count);
+    }
+}
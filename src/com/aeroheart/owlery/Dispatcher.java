@@ -0,0 +1,960 @@
+package com.aeroheart.owlery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.aeroheart.owlery.util.LatencyTracker;
+
+/**
+ * Runs asynchronous requests on a shared thread pool. Requests that cannot be started yet are
+ * kept in a priority queue and are only handed to the pool once both the global limit and the
+ * limit for the request's host allow it, so a slow host cannot starve requests to other hosts.
+ * 
+ * @author aeroheart.c6
+ */
+public class Dispatcher {
+    public static final int DEFAULT_MAX_REQUESTS          = 16;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    
+    /**
+     * Time in milliseconds a BATCHED_MAIN_THREAD callback waits for others to complete before the
+     * batch is triggered. This is about one frame at 60 frames per second.
+     */
+    public static final long BATCH_INTERVAL = 16;
+    
+    protected static Dispatcher defaultDispatcher;
+    
+    /**
+     * Retrieves the dispatcher used by requests that were not given one explicitly. The instance is
+     * created on first use.
+     * 
+     * @return the shared dispatcher
+     */
+    public static synchronized Dispatcher getDefault() {
+        if (Dispatcher.defaultDispatcher == null)
+            Dispatcher.defaultDispatcher = new Dispatcher();
+        
+        return Dispatcher.defaultDispatcher;
+    }
+    
+    public static synchronized void setDefault(Dispatcher dispatcher) {
+        Dispatcher.defaultDispatcher = dispatcher;
+    }
+    
+    
+    protected ExecutorService          executor;
+    protected Executor                 callbackExecutor;
+    protected ScheduledExecutorService scheduler;
+    protected Handler                  handler;
+    
+    protected int                   maxRequests;
+    protected int                   maxRequestsPerHost;
+    protected long                  sequence;
+    protected boolean               coalescing;
+    
+    protected TreeSet<Call>         queuedCalls;
+    protected List<Call>            runningCalls;
+    protected Map<String, Integer>  hostCounts;
+    
+    /**
+     * Calls of idempotent requests that are queued or running, keyed by what makes them identical.
+     * See getCoalescingKey()
+     */
+    protected Map<String, Call>     inFlightCalls;
+    
+    /**
+     * Completions of BATCHED_MAIN_THREAD requests waiting for the batch to be triggered. A batch is
+     * scheduled whenever a completion is added to the empty list.
+     */
+    protected List<Completion>      batch;
+    protected Runnable              batchTrigger;
+    
+    /**
+     * Latencies of the successful requests of every host, used to decide when to hedge a request
+     */
+    protected LatencyTracker        latencies;
+    
+    public Dispatcher() {
+        this(Dispatcher.DEFAULT_MAX_REQUESTS, Dispatcher.DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+    
+    public Dispatcher(int maxRequests, int maxRequestsPerHost) {
+        this(Dispatcher.createExecutor(), maxRequests, maxRequestsPerHost);
+    }
+    
+    /**
+     * Creates a dispatcher which runs requests on the provided executor. The executor must be able
+     * to run at least maxRequests tasks at the same time otherwise requests will wait inside the
+     * executor instead of in the priority queue.
+     * 
+     * @param executor
+     * @param maxRequests        the maximum number of requests running at the same time
+     * @param maxRequestsPerHost the maximum number of requests to a single host running at the
+     *                           same time
+     */
+    public Dispatcher(ExecutorService executor, int maxRequests, int maxRequestsPerHost) {
+        if (maxRequests < 1 || maxRequestsPerHost < 1)
+            throw new IllegalArgumentException("Request limits must be at least 1");
+        
+        this.executor           = executor;
+        this.handler            = new Handler(Looper.getMainLooper());
+        this.maxRequests        = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.sequence           = 0;
+        this.coalescing         = true;
+        
+        this.queuedCalls   = new TreeSet<Call>();
+        this.runningCalls  = new ArrayList<Call>();
+        this.hostCounts    = new HashMap<String, Integer>();
+        this.inFlightCalls = new HashMap<String, Call>();
+        
+        this.latencies     = new LatencyTracker();
+        
+        this.batch        = new ArrayList<Completion>();
+        this.batchTrigger = new Runnable() {
+            public void run() {
+                Dispatcher.this.triggerBatch();
+            }
+        };
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Configuration
+     ***********************************************************************************************
+     */
+    public synchronized int getMaxRequests() {
+        return this.maxRequests;
+    }
+    
+    public synchronized int getMaxRequestsPerHost() {
+        return this.maxRequestsPerHost;
+    }
+    
+    public synchronized Dispatcher setMaxRequests(int maxRequests) {
+        if (maxRequests < 1)
+            throw new IllegalArgumentException("Request limits must be at least 1");
+        
+        this.maxRequests = maxRequests;
+        this.promote();
+        
+        return this;
+    }
+    
+    public synchronized boolean isCoalescing() {
+        return this.coalescing;
+    }
+    
+    /**
+     * Sets whether a GET request identical to one already queued or running should wait for the
+     * result of that request instead of going to the network again. Enabled by default.
+     * 
+     * @param coalescing
+     * 
+     * @return the current instance
+     */
+    public synchronized Dispatcher setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+    
+    public synchronized Dispatcher setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1)
+            throw new IllegalArgumentException("Request limits must be at least 1");
+        
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.promote();
+        
+        return this;
+    }
+    
+    /**
+     * @return the executor BACKGROUND callbacks are triggered in, created on first use
+     */
+    public synchronized Executor getCallbackExecutor() {
+        if (this.callbackExecutor == null)
+            this.callbackExecutor = Executors.newCachedThreadPool(
+                Dispatcher.createThreadFactory("Owlery Callback #")
+            );
+        
+        return this.callbackExecutor;
+    }
+    
+    /**
+     * Sets the executor BACKGROUND callbacks are triggered in. Passing null restores the default
+     * pool.
+     * 
+     * @param executor
+     * 
+     * @return the current instance
+     */
+    public synchronized Dispatcher setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+        return this;
+    }
+    
+    /**
+     * @return the latencies of the successful requests of every host
+     */
+    public LatencyTracker getLatencies() {
+        return this.latencies;
+    }
+    
+    /**
+     * @return the scheduler delaying retries and hedges, created on first use
+     */
+    protected synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null)
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Dispatcher.createThreadFactory("Owlery Scheduler #")
+            );
+        
+        return this.scheduler;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Introspection
+     ***********************************************************************************************
+     */
+    /**
+     * @return the number of requests waiting for a free slot
+     */
+    public synchronized int getQueuedCount() {
+        return this.queuedCalls.size();
+    }
+    
+    /**
+     * @return the number of requests currently being executed
+     */
+    public synchronized int getRunningCount() {
+        return this.runningCalls.size();
+    }
+    
+    /**
+     * @param host
+     * 
+     * @return the number of requests to the specified host currently being executed
+     */
+    public synchronized int getRunningCount(String host) {
+        Integer count = this.hostCounts.get(host);
+        
+        return count == null ? 0 : count;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Dispatching
+     ***********************************************************************************************
+     */
+    /**
+     * Queues the request for execution. The response's callback will be triggered in the thread
+     * chosen by the request's delivery once the request completes unless the request is cancelled
+     * before that. If an identical GET request is already queued or running, the request is
+     * attached to it and gets a copy of its response instead of being sent on its own.
+     * 
+     * @param request
+     * @param response
+     */
+    public synchronized void enqueue(Request request, Response response) {
+        Call   call = new Call(this, request, response, this.sequence++),
+               leader;
+        String key  = this.coalescing ? this.getCoalescingKey(request, response) : null;
+        
+        request.call = call;
+        
+        leader = key == null ? null : this.inFlightCalls.get(key);
+        if (leader != null) {
+            call.leader = leader;
+            leader.followers.add(call);
+            
+            return;
+        }
+        
+        if (key != null) {
+            call.key = key;
+            this.inFlightCalls.put(key, call);
+        }
+        
+        this.queuedCalls.add(call);
+        this.promote();
+    }
+    
+    /**
+     * Removes the request from the queue if it has not been started yet. Requests which are
+     * already running have their connection closed by Request.cancel(). A request other requests
+     * are attached to keeps running for their sake but its own callback will not be triggered.
+     * 
+     * @param request
+     * 
+     * @return true if the request was still waiting in the queue or was attached to another
+     */
+    public synchronized boolean cancel(Request request) {
+        Call call = request.call,
+             leader;
+        
+        if (call == null || call.dispatcher != this)
+            return false;
+        
+        leader = call.leader;
+        if (leader != null) {
+            request.call = null;
+            leader.followers.remove(call);
+            
+            // Nobody is interested in the result of the leading call anymore
+            if (leader.request.cancelled && leader.followers.isEmpty()) {
+                this.dequeue(leader);
+                leader.request.abort();
+            }
+            
+            return true;
+        }
+        
+        // Keep the call going for the requests attached to it
+        if (!call.followers.isEmpty())
+            return false;
+        
+        return this.dequeue(call);
+    }
+    
+    /**
+     * Builds the key identifying a GET request along with how its response is going to be read.
+     * Requests are only considered identical if their responses would be identical as well.
+     * The OAuth nonce, timestamp and signature are left out as they differ for every request.
+     * 
+     * @param request
+     * @param response
+     * 
+     * @return the key or null if the request should not be coalesced
+     */
+    protected String getCoalescingKey(Request request, Response response) {
+        StringBuilder builder;
+        
+        if (request.method != Request.Method.GET || response.consumer != null)
+            return null;
+        
+        builder = new StringBuilder(request.getCacheKey());
+        builder.append('|').append(response.type)
+               .append('|').append(response.mode)
+               .append('|').append(response.bodyMode)
+               .append('|').append(response.modelClass == null ? "" : response.modelClass.getName())
+               .append('|').append(response.parser == null ? "" : response.parser.getClass());
+        
+        for (Map.Entry<String, String> header :
+             new TreeMap<String, String>(request.getHeaders()).entrySet()) {
+            String value = header.getValue();
+            
+            if (header.getKey().equalsIgnoreCase("Authorization") && value != null)
+                value = value.replaceAll("oauth_(nonce|timestamp|signature)=\"[^\"]*\"", "");
+            
+            builder.append('|').append(header.getKey()).append('=').append(value);
+        }
+        
+        return builder.toString();
+    }
+    
+    protected boolean dequeue(Call call) {
+        if (!this.queuedCalls.remove(call))
+            return false;
+        
+        if (call.key != null && this.inFlightCalls.get(call.key) == call)
+            this.inFlightCalls.remove(call.key);
+        
+        if (call.request.call == call)
+            call.request.call = null;
+        
+        return true;
+    }
+    
+    /**
+     * Starts as many queued calls as the limits allow, highest priority first. Calls whose host is
+     * saturated are skipped so they don't hold back calls to other hosts. Must be called while
+     * holding the lock of this instance.
+     */
+    protected void promote() {
+        Iterator<Call> iterator = this.queuedCalls.iterator();
+        
+        while (iterator.hasNext() && this.runningCalls.size() < this.maxRequests) {
+            Call call = iterator.next();
+            
+            if (this.getRunningCount(call.host) >= this.maxRequestsPerHost)
+                continue;
+            
+            iterator.remove();
+            this.runningCalls.add(call);
+            this.hostCounts.put(call.host, this.getRunningCount(call.host) + 1);
+            
+            try {
+                this.executor.execute(call);
+            }
+            catch (RejectedExecutionException exception) {
+                Log.e(Constants.LOG_TAG, "Dispatcher executor rejected the request", exception);
+                
+                this.runningCalls.remove(call);
+                this.hostCounts.put(call.host, this.getRunningCount(call.host) - 1);
+                this.abandon(call, exception);
+            }
+        }
+    }
+    
+    /**
+     * Releases the slot of the call and detaches the requests waiting on it
+     * 
+     * @param call
+     * 
+     * @return the calls of the requests that were attached to the call
+     */
+    protected synchronized List<Call> finished(Call call) {
+        List<Call> followers = this.detach(call);
+        
+        this.release(call);
+        
+        return followers;
+    }
+    
+    /**
+     * Fails a call that can't be run and delivers the failure to its request and to the requests
+     * attached to it from the main thread. Must be called while holding the lock of this instance.
+     * 
+     * @param call
+     * @param exception the reason the call can't be run
+     */
+    protected void abandon(final Call call, Exception exception) {
+        final List<Call> followers = this.detach(call);
+        
+        call.fail(new IOException("The request could not be run", exception));
+        
+        this.handler.post(new Runnable() {
+            public void run() {
+                call.deliver(followers);
+            }
+        });
+    }
+    
+    /**
+     * Removes the call from the in-flight calls and detaches the requests waiting on it. Must be
+     * called while holding the lock of this instance.
+     * 
+     * @param call
+     * 
+     * @return the calls of the requests that were attached to the call
+     */
+    protected List<Call> detach(Call call) {
+        List<Call> followers = new ArrayList<Call>(call.followers);
+        
+        if (call.key != null && this.inFlightCalls.get(call.key) == call)
+            this.inFlightCalls.remove(call.key);
+        
+        call.followers.clear();
+        
+        for (Call follower : followers)
+            if (follower.request.call == follower)
+                follower.request.call = null;
+        
+        if (call.request.call == call)
+            call.request.call = null;
+        
+        return followers;
+    }
+    
+    /**
+     * Frees the slot of a running call and starts the queued calls it makes room for. Must be
+     * called while holding the lock of this instance.
+     * 
+     * @param call
+     */
+    protected void release(Call call) {
+        int count;
+        
+        if (!this.runningCalls.remove(call))
+            return;
+        
+        count = this.getRunningCount(call.host) - 1;
+        
+        if (count > 0)
+            this.hostCounts.put(call.host, count);
+        else
+            this.hostCounts.remove(call.host);
+        
+        this.promote();
+    }
+    
+    /**
+     * Frees the slot of a call whose attempt failed and queues it again once the delay has passed.
+     * Requests attached to the call keep waiting for it.
+     * 
+     * @param call
+     * @param delay in milliseconds
+     */
+    protected synchronized void retry(final Call call, long delay) {
+        this.release(call);
+        
+        try {
+            this.getScheduler().schedule(
+                new Runnable() {
+                    public void run() {
+                        Dispatcher.this.requeue(call);
+                    }
+                },
+                delay,
+                TimeUnit.MILLISECONDS
+            );
+        }
+        catch (RejectedExecutionException exception) {
+            Log.e(Constants.LOG_TAG, "Dispatcher scheduler rejected the retry", exception);
+            this.abandon(call, exception);
+        }
+    }
+    
+    protected synchronized void requeue(Call call) {
+        // Cancelled while waiting; nobody wants the result anymore
+        if (call.isCancelled()) {
+            this.finished(call);
+            return;
+        }
+        
+        this.queuedCalls.add(call);
+        this.promote();
+    }
+    
+    /**
+     * @param call
+     * 
+     * @return the time to wait before hedging the request of the call or -1 if it should not be.
+     *         Only plain GET requests are hedged: the hedge is a copy of the request, so requests
+     *         relying on a body consumer, a custom parser or a one-time OAuth signature are not.
+     */
+    protected long getHedgeDelay(Call call) {
+        RetryPolicy policy = call.request.getRetryPolicy();
+        long        percentile;
+        
+        if (policy == null || !policy.isHedging())
+            return -1;
+        
+        if (call.request.method != Request.Method.GET || call.response.consumer != null ||
+            call.response.parser != null ||
+            call.response.bodyMode != Response.BodyMode.BUFFERED || call.request.isOAuthSigned())
+            return -1;
+        
+        percentile = this.latencies.getPercentile(call.host, policy.getHedgePercentile());
+        
+        // Not enough is known about the host yet to tell a slow request from a normal one
+        if (percentile < 0)
+            return -1;
+        
+        return Math.max(policy.getMinHedgeDelay(), percentile);
+    }
+    
+    /**
+     * Triggers the response's callback in the thread chosen by the request's delivery unless the
+     * request gets cancelled before that happens
+     * 
+     * @param request
+     * @param response
+     */
+    protected void deliver(Request request, Response response) {
+        Completion completion = new Completion(request, response);
+        Looper     looper     = request.callerLooper;
+        
+        switch (request.getDelivery()) {
+            case BATCHED_MAIN_THREAD:
+                this.addToBatch(completion);
+                break;
+                
+            case CALLER_THREAD:
+                if (looper == null)
+                    completion.run();
+                else
+                    new Handler(looper).post(completion);
+                break;
+            
+            case BACKGROUND:
+                this.getCallbackExecutor().execute(completion);
+                break;
+            
+            default:
+                this.handler.post(completion);
+        }
+    }
+    
+    /**
+     * Adds the completion to the pending batch, scheduling the batch if it is the first one
+     * 
+     * @param completion
+     */
+    protected void addToBatch(Completion completion) {
+        synchronized (this.batch) {
+            this.batch.add(completion);
+            
+            if (this.batch.size() > 1)
+                return;
+        }
+        
+        this.handler.postDelayed(this.batchTrigger, Dispatcher.BATCH_INTERVAL);
+    }
+    
+    /**
+     * Triggers every pending batched completion in the current (main) thread
+     */
+    protected void triggerBatch() {
+        List<Completion> completions;
+        
+        synchronized (this.batch) {
+            completions = new ArrayList<Completion>(this.batch);
+            this.batch.clear();
+        }
+        
+        for (Completion completion : completions)
+            completion.run();
+    }
+    
+    protected static ExecutorService createExecutor() {
+        // The pool itself is unbounded; the number of running requests is bounded by promote()
+        return new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            Dispatcher.createThreadFactory("Owlery Dispatcher #")
+        );
+    }
+    
+    /**
+     * @param prefix the name of the threads, followed by their number
+     * 
+     * @return a factory of background priority threads
+     */
+    protected static ThreadFactory createThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            protected AtomicInteger count = new AtomicInteger(1);
+            
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                });
+                
+                thread.setName(prefix + this.count.getAndIncrement());
+                return thread;
+            }
+        };
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Call
+     ***********************************************************************************************
+     */
+    /**
+     * A request paired with the response it should fill in. Calls are ordered by the priority of
+     * their request and then by the order they were queued in. Calls of requests identical to the
+     * one of a queued or running call follow that call instead of being queued.
+     */
+    protected static class Call implements Runnable, Comparable<Call> {
+        /**
+         * States of the race between an attempt and its hedge
+         */
+        protected static final int RUNNING   = 0;
+        protected static final int FINISHED  = 1;
+        protected static final int HEDGE_WON = 2;
+        
+        protected Dispatcher       dispatcher;
+        protected Request          request;
+        protected Response         response;
+        protected Request.Priority priority;
+        protected String           host;
+        protected long             sequence;
+        protected String           key;
+        protected Call             leader;
+        protected List<Call>       followers;
+        protected AtomicInteger    race;
+        protected volatile Hedge   hedge;
+        
+        protected Call(Dispatcher dispatcher, Request request, Response response, long sequence) {
+            this.dispatcher = dispatcher;
+            this.request    = request;
+            this.response   = response;
+            this.priority   = request.getPriority();
+            this.host       = request.getHost();
+            this.sequence   = sequence;
+            this.followers  = new CopyOnWriteArrayList<Call>();
+            this.race       = new AtomicInteger(Call.RUNNING);
+        }
+        
+        public void run() {
+            List<Call> followers = null;
+            long       delay     = -1;
+            
+            try {
+                this.perform();
+                
+                if (!this.request.isCancelled()) {
+                    delay = this.request.getRetryDelay(this.response);
+                    
+                    if (delay < 0)
+                        this.response.process();
+                }
+            }
+            catch (RuntimeException exception) {
+                Log.e(Constants.LOG_TAG, "Error on performing the request", exception);
+                
+                this.fail(new IOException("The request failed unexpectedly", exception));
+                delay = -1;
+            }
+            finally {
+                if (delay < 0)
+                    followers = this.dispatcher.finished(this);
+            }
+            
+            if (delay >= 0) {
+                this.dispatcher.retry(this, delay);
+                return;
+            }
+            
+            this.deliver(followers);
+        }
+        
+        /**
+         * Marks the request of this call as failed, dropping whatever part of the response was
+         * read
+         * 
+         * @param exception
+         */
+        protected void fail(IOException exception) {
+            this.request.setFailure(exception);
+            this.response.setStatus(0, null)
+                         .setBody(null)
+                         .process();
+        }
+        
+        /**
+         * Triggers the callbacks of the request of this call and of the requests that were
+         * attached to it with the response of this call
+         * 
+         * @param followers
+         */
+        protected void deliver(List<Call> followers) {
+            this.dispatcher.deliver(this.request, this.response);
+            
+            for (Call follower : followers) {
+                follower.response.copyFrom(this.response);
+                this.dispatcher.deliver(follower.request, follower.response);
+            }
+        }
+        
+        /**
+         * Performs one attempt of the request. If the attempt runs for longer than the hedge delay
+         * of the request, an identical request is started next to it and the first of the two to
+         * succeed provides the response.
+         */
+        protected void perform() {
+            long               delay = this.dispatcher.getHedgeDelay(this),
+                               start = SystemClock.elapsedRealtime();
+            ScheduledFuture<?> timer = null;
+            Hedge              hedge;
+            
+            this.race.set(Call.RUNNING);
+            this.hedge = null;
+            
+            if (delay >= 0)
+                timer = this.scheduleHedge(delay);
+            
+            this.request.perform(this.response);
+            
+            if (timer != null) {
+                timer.cancel(false);
+                
+                // The hedge may still succeed where this attempt failed
+                if (!Call.isSuccessful(this.request, this.response) && (hedge = this.hedge) != null)
+                    hedge.await();
+                
+                if (!this.race.compareAndSet(Call.RUNNING, Call.FINISHED)) {
+                    this.response.copyFrom(this.hedge.response);
+                    this.request.failure  = null;
+                    this.request.timedOut = false;
+                    
+                    return;
+                }
+                
+                if ((hedge = this.hedge) != null)
+                    hedge.request.cancel();
+            }
+            
+            if (Call.isSuccessful(this.request, this.response))
+                this.dispatcher.latencies.record(this.host, SystemClock.elapsedRealtime() - start);
+        }
+        
+        protected ScheduledFuture<?> scheduleHedge(long delay) {
+            try {
+                return this.dispatcher.getScheduler().schedule(
+                    new Runnable() {
+                        public void run() {
+                            Call.this.hedge();
+                        }
+                    },
+                    delay,
+                    TimeUnit.MILLISECONDS
+                );
+            }
+            catch (RejectedExecutionException exception) {
+                return null;
+            }
+        }
+        
+        /**
+         * Starts the hedge of the current attempt unless the attempt is already over
+         */
+        protected void hedge() {
+            Hedge hedge;
+            
+            if (this.race.get() != Call.RUNNING || this.request.isCancelled())
+                return;
+            
+            hedge      = new Hedge(this, this.request.copy(), this.response.copySettings());
+            this.hedge = hedge;
+            
+            // Hedges don't count against the request limits; they only exist to cut the tail
+            try {
+                this.dispatcher.executor.execute(hedge);
+            }
+            catch (RejectedExecutionException exception) {
+                hedge.done.countDown();
+            }
+        }
+        
+        /**
+         * @param request
+         * @param response
+         * 
+         * @return true if the attempt got a response that retrying would not improve on
+         */
+        protected static boolean isSuccessful(Request request, Response response) {
+            return request.getFailure() == null && !request.isTimedOut() &&
+                   response.getStatusCode() > 0 &&
+                   !RetryPolicy.isRetryableStatus(response.getStatusCode());
+        }
+        
+        /**
+         * @return true if the request of this call and every request attached to it have been
+         *         cancelled
+         */
+        protected boolean isCancelled() {
+            return this.request.cancelled && this.followers.isEmpty();
+        }
+        
+        public int compareTo(Call other) {
+            int result = this.priority.compareTo(other.priority);
+            
+            if (result != 0)
+                return result;
+            
+            return this.sequence < other.sequence ? -1 : (this.sequence > other.sequence ? 1 : 0);
+        }
+    }
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Hedge
+     ***********************************************************************************************
+     */
+    /**
+     * A copy of the request of a call, performed alongside the call's current attempt. The hedge
+     * closes the attempt's connection when it succeeds first.
+     */
+    protected static class Hedge implements Runnable {
+        protected Call           call;
+        protected Request        request;
+        protected Response       response;
+        protected CountDownLatch done;
+        
+        protected Hedge(Call call, Request request, Response response) {
+            this.call     = call;
+            this.request  = request;
+            this.response = response;
+            this.done     = new CountDownLatch(1);
+        }
+        
+        public void run() {
+            try {
+                if (this.call.race.get() != Call.RUNNING)
+                    return;
+                
+                this.request.perform(this.response);
+                
+                if (!this.request.isCancelled() &&
+                    Call.isSuccessful(this.request, this.response) &&
+                    this.call.race.compareAndSet(Call.RUNNING, Call.HEDGE_WON))
+                    this.call.request.abort();
+            }
+            catch (RuntimeException exception) {
+                // Some connection implementations fail this way when closed from another thread
+                if (!this.request.isCancelled())
+                    throw exception;
+            }
+            finally {
+                this.done.countDown();
+            }
+        }
+        
+        protected void await() {
+            try {
+                this.done.await();
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Completion
+     ***********************************************************************************************
+     */
+    /**
+     * Triggers the callback of a completed request unless it was cancelled in the meantime
+     */
+    protected static class Completion implements Runnable {
+        protected Request  request;
+        protected Response response;
+        
+        protected Completion(Request request, Response response) {
+            this.request  = request;
+            this.response = response;
+        }
+        
+        public void run() {
+            if (this.request.cancelled)
+                return;
+            
+            this.response.triggerCallback(this.request);
+        }
+    }
+}
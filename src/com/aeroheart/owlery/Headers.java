@@ -0,0 +1,229 @@
+package com.aeroheart.owlery;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The headers of a response, stored as parallel arrays of names and values. Names are matched
+ * case-insensitively and headers repeated under differently cased names are merged into one. The
+ * status line that HttpURLConnection reports under the null name is left out.
+ * 
+ * Instances are immutable and every accessor returns a view over the arrays rather than a copy, so
+ * the same instance can be shared by the responses of coalesced requests.
+ * 
+ * @author aeroheart.c6
+ */
+public class Headers {
+    public static final Headers EMPTY = new Headers(new String[0], new List<?>[0]);
+    
+    protected final String[]  names;
+    protected final List<?>[] values;
+    
+    protected Headers(String[] names, List<?>[] values) {
+        this.names  = names;
+        this.values = values;
+    }
+    
+    /**
+     * @param fields the header fields, as returned by HttpURLConnection.getHeaderFields(). May be
+     *               null
+     * 
+     * @return the headers
+     */
+    public static Headers of(Map<String, List<String>> fields) {
+        List<String>       names;
+        List<List<String>> values;
+        int                idx;
+        
+        if (fields == null || fields.isEmpty())
+            return Headers.EMPTY;
+        
+        names  = new ArrayList<String>(fields.size());
+        values = new ArrayList<List<String>>(fields.size());
+        
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            if (field.getKey() == null || field.getValue() == null)
+                continue;
+            
+            idx = Headers.indexOf(names, field.getKey());
+            
+            if (idx < 0) {
+                names.add(field.getKey());
+                values.add(new ArrayList<String>(field.getValue()));
+            }
+            else {
+                values.get(idx).addAll(field.getValue());
+            }
+        }
+        
+        for (idx = 0; idx < values.size(); idx++)
+            values.set(idx, Collections.unmodifiableList(values.get(idx)));
+        
+        return new Headers(
+            names.toArray(new String[names.size()]),
+            values.toArray(new List<?>[values.size()])
+        );
+    }
+    
+    public int size() {
+        return this.names.length;
+    }
+    
+    public String getName(int index) {
+        return this.names[index];
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<String> getValues(int index) {
+        return (List<String>)this.values[index];
+    }
+    
+    /**
+     * @param name
+     * 
+     * @return the position of the header, or -1 if there's no header by that name
+     */
+    public int indexOf(String name) {
+        for (int idx = 0; idx < this.names.length; idx++)
+            if (this.names[idx].equalsIgnoreCase(name))
+                return idx;
+        
+        return -1;
+    }
+    
+    /**
+     * @param name
+     * 
+     * @return the last value of the header or null if there is none
+     */
+    public String get(String name) {
+        int          idx = this.indexOf(name);
+        List<String> values;
+        
+        if (idx < 0)
+            return null;
+        
+        values = this.getValues(idx);
+        
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+    
+    /**
+     * @param name
+     * 
+     * @return the values of the header, or an empty list if there is none
+     */
+    public List<String> getAll(String name) {
+        int idx = this.indexOf(name);
+        
+        return idx < 0 ? Collections.<String>emptyList() : this.getValues(idx);
+    }
+    
+    /**
+     * @return a read-only view of the header names
+     */
+    public List<String> getNames() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return Headers.this.names[index];
+            }
+            
+            @Override
+            public int size() {
+                return Headers.this.names.length;
+            }
+        };
+    }
+    
+    /**
+     * Gives the headers to code expecting the Map form of HttpURLConnection. Unlike a regular map,
+     * get() and containsKey() of the view ignore the case of the name.
+     * 
+     * @return a read-only map view of the headers
+     */
+    public Map<String, List<String>> asMap() {
+        return new AbstractMap<String, List<String>>() {
+            @Override
+            public Set<Map.Entry<String, List<String>>> entrySet() {
+                return new EntrySet();
+            }
+            
+            @Override
+            public List<String> get(Object key) {
+                int idx = key instanceof String ? Headers.this.indexOf((String)key) : -1;
+                
+                return idx < 0 ? null : Headers.this.getValues(idx);
+            }
+            
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && Headers.this.indexOf((String)key) >= 0;
+            }
+            
+            @Override
+            public int size() {
+                return Headers.this.names.length;
+            }
+        };
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static int indexOf(List<String> names, String name) {
+        for (int idx = 0; idx < names.size(); idx++)
+            if (names.get(idx).equalsIgnoreCase(name))
+                return idx;
+        
+        return -1;
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: EntrySet
+     ***********************************************************************************************
+     */
+    protected class EntrySet extends AbstractSet<Map.Entry<String, List<String>>> {
+        @Override
+        public Iterator<Map.Entry<String, List<String>>> iterator() {
+            return new Iterator<Map.Entry<String, List<String>>>() {
+                protected int index = 0;
+                
+                public boolean hasNext() {
+                    return this.index < Headers.this.names.length;
+                }
+                
+                public Map.Entry<String, List<String>> next() {
+                    if (!this.hasNext())
+                        throw new NoSuchElementException();
+                    
+                    return new AbstractMap.SimpleImmutableEntry<String, List<String>>(
+                        Headers.this.getName(this.index),
+                        Headers.this.getValues(this.index++)
+                    );
+                }
+                
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        
+        @Override
+        public int size() {
+            return Headers.this.names.length;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.aeroheart.owlery;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A multipart/form-data request body. Form fields are encoded up front since they are small, while
+ * files are streamed from disk through their FileChannel when the body is written. The total
+ * length is known before anything is written so fixed length streaming can still be used.
+ * 
+ * @author aeroheart.c6
+ */
+public class MultipartBody {
+    protected static final String CRLF = "\r\n";
+    
+    /**
+     * Number of file bytes transferred between cancellation checks and progress updates
+     */
+    protected static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+    
+    protected static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    
+    protected String     boundary;
+    protected List<Part> parts;
+    protected byte[]     closing;
+    protected long       length;
+    
+    /**
+     * @param fields the form fields. Values are not encoded
+     * @param files  the files, keyed by field name, given as their path on disk
+     */
+    public MultipartBody(Map<String, List<String>> fields, Map<String, String> files) {
+        this.boundary = MultipartBody.createBoundary();
+        this.parts    = new ArrayList<Part>();
+        
+        for (Map.Entry<String, List<String>> field : fields.entrySet())
+            for (String value : field.getValue())
+                this.parts.add(new Part(
+                    this.toBytes(
+                        this.getPartHead(field.getKey(), null, null) + value + MultipartBody.CRLF
+                    ),
+                    null
+                ));
+        
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            File   file = new File(entry.getValue());
+            String type = URLConnection.guessContentTypeFromName(file.getName());
+            
+            this.parts.add(new Part(
+                this.toBytes(this.getPartHead(
+                    entry.getKey(),
+                    file.getName(),
+                    type == null ? MultipartBody.DEFAULT_CONTENT_TYPE : type
+                )),
+                file
+            ));
+        }
+        
+        this.closing = this.toBytes("--" + this.boundary + "--" + MultipartBody.CRLF);
+        this.length  = this.closing.length;
+        
+        for (Part part : this.parts)
+            this.length += part.getLength();
+    }
+    
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + this.boundary;
+    }
+    
+    /**
+     * @return the number of bytes writeTo() will write, based on the file sizes at the time this
+     *         body was created
+     */
+    public long getLength() {
+        return this.length;
+    }
+    
+    /**
+     * Writes the body. The request is checked for cancellation and notified of the progress after
+     * every part and every file chunk.
+     * 
+     * @param stream
+     * @param request
+     * 
+     * @throws IOException if writing fails, a file can't be read or changed size, or the request
+     *                     was cancelled
+     */
+    public void writeTo(OutputStream stream, Request request) throws IOException {
+        WritableByteChannel target  = Channels.newChannel(stream);
+        long                written = 0;
+        
+        for (Part part : this.parts) {
+            this.checkCancelled(request);
+            
+            stream.write(part.head);
+            written += part.head.length;
+            
+            if (part.file != null) {
+                written = this.transfer(part, target, written, request);
+                stream.write(this.toBytes(MultipartBody.CRLF));
+                written += 2;
+            }
+            
+            request.notifyProgress(written, this.length);
+        }
+        
+        stream.write(this.closing);
+        request.notifyProgress(written + this.closing.length, this.length);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static String createBoundary() {
+        return "OwleryBoundary" + Long.toHexString(new Random().nextLong()) +
+                                  Long.toHexString(System.nanoTime());
+    }
+    
+    protected long transfer(Part part, WritableByteChannel target, long written, Request request)
+        throws IOException {
+        FileInputStream input    = new FileInputStream(part.file);
+        FileChannel     channel  = input.getChannel();
+        long            size     = part.size,
+                        position = 0,
+                        count;
+        
+        try {
+            // The length was announced already, so a file that changed size can't be sent anymore
+            if (channel.size() != size)
+                throw new IOException("File changed before uploading: " + part.file.getPath());
+            
+            while (position < size) {
+                this.checkCancelled(request);
+                
+                count = channel.transferTo(
+                    position,
+                    Math.min(MultipartBody.TRANSFER_CHUNK_SIZE, size - position),
+                    target
+                );
+                
+                if (count <= 0)
+                    throw new IOException("File truncated on uploading: " + part.file.getPath());
+                
+                position += count;
+                written  += count;
+                request.notifyProgress(written, this.length);
+            }
+        }
+        finally {
+            input.close();
+        }
+        
+        return written;
+    }
+    
+    protected String getPartHead(String name, String filename, String contentType) {
+        StringBuilder builder = new StringBuilder();
+        
+        builder.append("--").append(this.boundary).append(MultipartBody.CRLF)
+               .append("Content-Disposition: form-data; name=\"")
+               .append(MultipartBody.escape(name)).append('"');
+        
+        if (filename != null)
+            builder.append("; filename=\"").append(MultipartBody.escape(filename)).append('"');
+        
+        builder.append(MultipartBody.CRLF);
+        
+        if (contentType != null)
+            builder.append("Content-Type: ").append(contentType).append(MultipartBody.CRLF);
+        
+        return builder.append(MultipartBody.CRLF).toString();
+    }
+    
+    protected static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+    
+    protected byte[] toBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException exception) {
+            return value.getBytes();
+        }
+    }
+    
+    protected void checkCancelled(Request request) throws IOException {
+        if (request.isCancelled())
+            throw new IOException("Request cancelled");
+        
+        request.checkDeadline();
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Part
+     ***********************************************************************************************
+     */
+    protected static class Part {
+        protected byte[] head;
+        protected File   file;
+        protected long   size;
+        
+        protected Part(byte[] head, File file) {
+            this.head = head;
+            this.file = file;
+            this.size = file == null ? 0 : file.length();
+        }
+        
+        /**
+         * @return the length of the part including the line break that ends a file's contents
+         */
+        protected long getLength() {
+            return this.file == null ? this.head.length : this.head.length + this.size + 2;
+        }
+    }
+}
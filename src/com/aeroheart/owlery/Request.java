@@ -1,10 +1,11 @@
 package com.aeroheart.owlery;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookieStore;
@@ -12,21 +13,38 @@ import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.aeroheart.owlery.cache.CacheEntry;
+import com.aeroheart.owlery.cache.CachingInputStream;
+import com.aeroheart.owlery.cache.DiskCache;
+import com.aeroheart.owlery.cache.ModelCache;
 import com.aeroheart.owlery.model.Model;
+import com.aeroheart.owlery.util.BufferPool;
 import com.aeroheart.owlery.util.UrlHelper;
 
 /**
@@ -45,7 +63,165 @@ public class Request {
         PUT;
     }
     
+    /**
+     * Order in which queued requests are started by the Dispatcher. Requests with the same priority
+     * are started in the order they were executed.
+     */
+    public enum Priority {
+        USER_VISIBLE,
+        PREFETCH,
+        BACKGROUND;
+    }
+    
+    /**
+     * Thread the response callback of an asynchronous request is triggered in.
+     * 
+     * MAIN_THREAD posts every callback to the main looper separately. BATCHED_MAIN_THREAD gathers
+     * the callbacks completing within the same frame and triggers them in a single main thread
+     * message. CALLER_THREAD posts to the looper of the thread that called execute(), or triggers
+     * the callback in the request's thread if it has none. BACKGROUND triggers the callback in the
+     * Dispatcher's callback executor.
+     */
+    public enum Delivery {
+        MAIN_THREAD,
+        BATCHED_MAIN_THREAD,
+        CALLER_THREAD,
+        BACKGROUND;
+    }
+    
+    /**
+     * Number of bytes of the request body written between cancellation checks
+     */
+    protected static final int WRITE_CHUNK_SIZE = 8192;
+    
+    /**
+     * Most unread response body bytes skipped to keep a connection open. Bodies with more left in
+     * them are cheaper to abandon along with their connection.
+     */
+    protected static final int MAX_DRAIN_BYTES = 64 * 1024;
+    
+    /**
+     * Largest Content-Length trusted to size the body array up front. Larger bodies are read into
+     * pooled buffers so that a wrong or hostile header can't make us allocate more than was sent.
+     */
+    protected static final int MAX_PRESIZED_BODY = 4 * 1024 * 1024;
+    
+    protected static final Pattern OAUTH_TOKEN_PATTERN =
+        Pattern.compile("oauth_token=\"([^\"]*)\"");
+    
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    public static final int DEFAULT_READ_TIMEOUT    = 30000;
+    
     protected static CookieManager cookieManager;
+    protected static DiskCache     cache;
+    protected static ModelCache    modelCache;
+    
+    protected static int           defaultConnectTimeout = Request.DEFAULT_CONNECT_TIMEOUT;
+    protected static int           defaultReadTimeout    = Request.DEFAULT_READ_TIMEOUT;
+    protected static long          defaultDeadline       = 0;
+    
+    /**
+     * Closes the connections of requests that run past their deadline
+     */
+    protected static ScheduledExecutorService watchdog;
+    protected static RetryPolicy              defaultRetryPolicy;
+    protected static CircuitBreaker           defaultCircuitBreaker;
+    
+    /**
+     * Sets the timeouts of requests that were not given their own. A timeout of 0 waits forever.
+     * 
+     * @param connectTimeout milliseconds to wait for the connection to be established
+     * @param readTimeout    milliseconds to wait for each read of the response
+     */
+    public static void setDefaultTimeouts(int connectTimeout, int readTimeout) {
+        if (connectTimeout < 0 || readTimeout < 0)
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        
+        Request.defaultConnectTimeout = connectTimeout;
+        Request.defaultReadTimeout    = readTimeout;
+    }
+    
+    /**
+     * Sets the deadline of requests that were not given their own. 0 disables it.
+     * 
+     * @param deadline milliseconds a request has from being executed to being complete
+     */
+    public static void setDefaultDeadline(long deadline) {
+        if (deadline < 0)
+            throw new IllegalArgumentException("Deadline cannot be negative");
+        
+        Request.defaultDeadline = deadline;
+    }
+    
+    /**
+     * Sets the retry policy of requests that were not given their own. Null, the default,
+     * disables retries.
+     * 
+     * @param policy
+     */
+    public static void setDefaultRetryPolicy(RetryPolicy policy) {
+        Request.defaultRetryPolicy = policy;
+    }
+    
+    public static RetryPolicy getDefaultRetryPolicy() {
+        return Request.defaultRetryPolicy;
+    }
+    
+    /**
+     * Sets the circuit breaker of requests that were not given their own. Null, the default, lets
+     * every request through.
+     * 
+     * @param breaker
+     */
+    public static void setDefaultCircuitBreaker(CircuitBreaker breaker) {
+        Request.defaultCircuitBreaker = breaker;
+    }
+    
+    public static CircuitBreaker getDefaultCircuitBreaker() {
+        return Request.defaultCircuitBreaker;
+    }
+    
+    protected static synchronized ScheduledExecutorService getWatchdog() {
+        if (Request.watchdog == null)
+            Request.watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Owlery Watchdog");
+                    
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        
+        return Request.watchdog;
+    }
+    
+    /**
+     * Sets the disk cache GET responses are stored in and served from. Passing null disables
+     * caching.
+     * 
+     * @param cache
+     */
+    public static void setCache(DiskCache cache) {
+        Request.cache = cache;
+    }
+    
+    public static DiskCache getCache() {
+        return Request.cache;
+    }
+    
+    /**
+     * Sets the in-memory cache parsed models of GET requests are stored in. A request whose models
+     * are in the cache completes without any network access or parsing. Passing null disables it.
+     * 
+     * @param cache
+     */
+    public static void setModelCache(ModelCache cache) {
+        Request.modelCache = cache;
+    }
+    
+    public static ModelCache getModelCache() {
+        return Request.modelCache;
+    }
     
     public static void setCookieEnabled(boolean enabled) {
         if (enabled) {
@@ -64,65 +240,163 @@ public class Request {
         }
     }
     
+    /**
+     * Enables cookies, keeping them in the provided store. Use a PersistentCookieStore to keep
+     * cookies across process restarts.
+     * 
+     * @param store
+     */
+    public static void setCookieStore(CookieStore store) {
+        Request.cookieManager = new CookieManager(store, null);
+        CookieHandler.setDefault(Request.cookieManager);
+    }
+    
     public static List<HttpCookie> getCookiesFor(String urlString) {
-        URL url;
-        URI uri;
+        URI uri = Request.getCookieUri(urlString);
         
-        try {
-            url = new URL(urlString);
-            uri = new URI(String.format("%s://%s", url.getProtocol(), url.getHost()));
-        }
-        catch (MalformedURLException exception) {
-            return null;
-        }
-        catch (URISyntaxException exception) {
+        if (uri == null)
             return null;
-        }
         
         return Request.cookieManager.getCookieStore().get(uri);
     }
     
     public static void removeCookiesFor(String urlString) {
         CookieStore store = Request.cookieManager.getCookieStore();
-        URL url;
-        URI uri;
+        URI         uri;
         
-        if (urlString == null)
+        if (urlString == null) {
             store.removeAll();
+            return;
+        }
+        
+        uri = Request.getCookieUri(urlString);
+        if (uri == null)
+            return;
         
+        for (HttpCookie cookie : store.get(uri))
+            store.remove(uri, cookie);
+    }
+    
+    /**
+     * @param urlString
+     * 
+     * @return the uri cookies of the url are looked up with, which is the url without its path,
+     *         or null if the url is malformed
+     */
+    protected static URI getCookieUri(String urlString) {
         try {
-            url = new URL(urlString);
-            uri = new URI(String.format("%s://%s", url.getProtocol(), url.getHost()));
+            URL url = new URL(urlString);
+            
+            return new URI(url.getProtocol(), url.getHost(), null, null);
         }
         catch (MalformedURLException exception) {
-            return;
+            return null;
         }
         catch (URISyntaxException exception) {
-            return;
+            return null;
         }
-        
-        for (HttpCookie cookie : store.get(uri))
-            store.remove(uri, cookie);
     }
     
     
     protected boolean                     signRequest;
     protected Response.Mode               responseMode;
     protected Response.Type               type;
+    protected Response.BodyMode           bodyMode;
+    protected Response.BodyConsumer       bodyConsumer;
     protected Method                      method;
+    protected Priority                    priority;
+    protected Delivery                    delivery;
+    protected boolean                     modelCacheEnabled;
+    protected String                      modelCacheScope;
     protected String                      url;
     protected Map<String, List<String>>   queryData;
     protected Map<String, List<String>>   postData;
     protected Map<String, String>         fileData;
     protected Map<String, String>         headData;
     
-    protected HttpURLConnection           connection;
+    /**
+     * The url the last response came from, which differs from the request url after a redirect
+     */
+    protected String                      finalUrl;
+    
+    /**
+     * The encoded query string and payload. Built once on first use and dropped whenever the
+     * parameters they come from change
+     */
+    protected String                      queryString;
+    protected String                      payloadString;
+    protected byte[]                      payload;
+    protected MultipartBody               multipartBody;
+    protected ProgressListener            progressListener;
+    
+    protected volatile HttpURLConnection  connection;
+    protected boolean                     keepAlive;
+    
+    /**
+     * Timeouts in milliseconds; -1 uses the defaults. The deadline bounds the whole request,
+     * including the time spent waiting in the Dispatcher, and is shared by all of its phases.
+     */
+    protected int                         connectTimeout;
+    protected int                         readTimeout;
+    protected long                        deadline;
+    
+    /**
+     * When the deadline runs out, in SystemClock.elapsedRealtime() milliseconds, or 0 if there's
+     * none. Set when the request is executed
+     */
+    protected long                        deadlineAt;
+    protected volatile boolean            timedOut;
+    protected ScheduledFuture<?>          watchdogTask;
+    
+    /**
+     * The policy deciding whether failed attempts are tried again, the number of the current
+     * attempt starting from 1 and the I/O error the last attempt failed with, if any
+     */
+    protected RetryPolicy                 retryPolicy;
+    protected int                         attempt;
+    protected IOException                 failure;
+    
+    /**
+     * The circuit breaker guarding the host, the one which let the current attempt through (null
+     * if none did) and whether it rejected the attempt instead
+     */
+    protected CircuitBreaker              circuitBreaker;
+    protected CircuitBreaker              circuitPermit;
+    protected boolean                     circuitRejected;
+    
+    /**
+     * Whether the connection is still in a state the platform can reuse it in, and whether its
+     * response body has been read to the end and closed
+     */
+    protected boolean                     reusable;
+    protected boolean                     bodyReleased;
+    
+    /**
+     * The cached response for this request, if any, and whether it is being served without going
+     * through the network
+     */
+    protected String                      cacheKey;
+    protected CacheEntry                  cacheEntry;
+    protected DiskCache.Snapshot          cacheSnapshot;
+    protected boolean                     cacheHit;
+    
+    /**
+     * The dispatcher used when executing asynchronously. Dispatcher.getDefault() is used when this
+     * is null
+     */
+    protected Dispatcher                  dispatcher;
+    
+    /**
+     * The dispatcher call this instance is currently queued or running in. This is only non-null
+     * while the request is being executed asynchronously
+     */
+    protected volatile Dispatcher.Call    call;
+    protected volatile boolean            cancelled;
     
     /**
-     * Sets the current async task whose thread this instance is running in. Setting this to non-null
-     * will assume that this Request is synchronously
+     * The looper of the thread execute() was called in when the delivery is CALLER_THREAD
      */
-    protected AsyncTask<Void, Void, Void> task;
+    protected Looper                      callerLooper;
     
     /**
      * Creates an instance with the specified url and request method but with the default type set
@@ -150,9 +424,18 @@ public class Request {
         this.url    = url;
         this.type   = type;
         this.responseMode = mode;
+        this.bodyMode     = Response.BodyMode.BUFFERED;
+        this.priority     = Priority.USER_VISIBLE;
+        this.delivery     = Delivery.MAIN_THREAD;
+        this.keepAlive    = true;
+        this.connectTimeout = -1;
+        this.readTimeout    = -1;
+        this.deadline       = -1;
+        this.cancelled    = false;
+        this.modelCacheEnabled = true;
         
-        this.queryData = new HashMap<String, List<String>>();
-        this.postData  = new HashMap<String, List<String>>();
+        this.queryData = new LinkedHashMap<String, List<String>>();
+        this.postData  = new LinkedHashMap<String, List<String>>();
         this.fileData  = new HashMap<String, String>();
         this.headData  = new HashMap<String, String>();
         
@@ -169,6 +452,36 @@ public class Request {
         return this.method.name();
     }
     
+    /**
+     * @return the host portion of the url. This is what the Dispatcher uses to enforce the per-host
+     *         request limit
+     */
+    public String getHost() {
+        return Uri.parse(this.url).getHost();
+    }
+    
+    public Priority getPriority() {
+        return this.priority;
+    }
+    
+    public Delivery getDelivery() {
+        return this.delivery;
+    }
+    
+    /**
+     * Identifies the resource this request points to in the cache. The key is made from the
+     * method, the url and the query parameters sorted so their order doesn't matter.
+     * 
+     * @return the cache key
+     */
+    public String getCacheKey() {
+        return this.getCacheKey(this.getMethod());
+    }
+    
+    public Dispatcher getDispatcher() {
+        return this.dispatcher == null ? Dispatcher.getDefault() : this.dispatcher;
+    }
+    
     public List<HttpCookie> getCookies() {
         if (Request.cookieManager == null)
             return null;
@@ -180,6 +493,10 @@ public class Request {
         return this.type;
     }
     
+    public Response.BodyMode getBodyMode() {
+        return this.bodyMode;
+    }
+    
     public Request setUrl(String url) {
         this.url = url;
         this.extractQueryParams();
@@ -187,199 +504,512 @@ public class Request {
         return this;
     }
     
-    public Request setAsyncTask(AsyncTask<Void, Void, Void> task) {
-        this.task = task;
-        
-        return this;
+    /**
+     * @return the url, query string included, the last response came from after following
+     *         redirects, or null if the request hasn't received a response yet
+     */
+    public String getFinalUrl() {
+        return this.finalUrl;
     }
     
-    public Request removeCookies() {
-        Request.removeCookiesFor(this.url);
+    public Request setPriority(Priority priority) {
+        this.priority = priority == null ? Priority.USER_VISIBLE : priority;
+        
         return this;
     }
     
-    /*
-     ***********************************************************************************************
-     * Query Parameters Methods
-     ***********************************************************************************************
-     */
     /**
-     * Adds the name-value pair into the query parameters for the request. The key can be repeatedly
-     * used.
+     * Sets the thread the callback is triggered in when executing asynchronously. Defaults to
+     * MAIN_THREAD.
      * 
-     * @param key   The name in the parameter pair
-     * @param value The value in the parameter pair
+     * @param delivery
      * 
      * @return The request instance for method chaining
      */
-    public Request addQueryParam(String key, String value) {
-        this.addMultiParam(this.queryData, key, value);
+    public Request setDelivery(Delivery delivery) {
+        this.delivery = delivery == null ? Delivery.MAIN_THREAD : delivery;
         
         return this;
     }
     
     /**
-     * Allows retrieval of the value of the specified key as a string. If the key has multiple
-     * values, the last value will be returned. The value returned is not url encoded.
+     * Sets how the response body will be read. In STREAMING mode, successful response bodies are
+     * read directly off the connection by the body consumer or the parser (if it is a
+     * Response.StreamParser) and Response.getBody() will be empty. Defaults to BUFFERED.
      * 
-     * @param key The name in the parameter pair
+     * @param bodyMode
      * 
-     * @return The value paired with the key.
+     * @return The request instance for method chaining
      */
-    public String getQueryValue(String key) {
-        List<String> values = this.queryData.get(key);
-        
-        if (values == null)
-            return "";
+    public Request setBodyMode(Response.BodyMode bodyMode) {
+        this.bodyMode = bodyMode == null ? Response.BodyMode.BUFFERED : bodyMode;
         
-        return values.get(values.size() - 1);
+        return this;
     }
     
     /**
-     * Retrieves all the values of the specified name in the query parameters.
-     * The values will not be url encoded.
+     * Sets the consumer that will be handed the response body stream. This also switches the body
+     * mode to STREAMING.
      * 
-     * @param key The name in the parameter pair
+     * @param consumer
      * 
-     * @return A unmodifiable list of values
+     * @return The request instance for method chaining
      */
-    public List<String> getQueryValues(String key) {
-        return Collections.unmodifiableList(this.queryData.get(key));
+    public Request setBodyConsumer(Response.BodyConsumer consumer) {
+        this.bodyConsumer = consumer;
+        
+        if (consumer != null)
+            this.bodyMode = Response.BodyMode.STREAMING;
+        
+        return this;
     }
     
     /**
-     * Allows retrieval for all the request's query parameters in one method call. The values are
-     * not be url encoded
+     * Sets whether the connection is left open for following requests to the same host once the
+     * response has been read. The connection is always closed when the request is cancelled or
+     * fails. Enabled by default.
      * 
-     * @return An unmodifiable map of values
+     * @param keepAlive
+     * 
+     * @return The request instance for method chaining
      */
-    public Map<String, List<String>> getQueryParameters() {
-        Map<String, List<String>> output = new HashMap<String, List<String>>();
-        
-        for (String key : this.queryData.keySet())
-            output.put(key, this.getQueryValues(key));
+    public Request setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        this.addHeader("Connection", keepAlive ? "keep-alive" : "close");
         
-        return Collections.unmodifiableMap(output);
+        return this;
+    }
+    
+    public boolean isKeepAlive() {
+        return this.keepAlive;
     }
     
     /**
-     * Summarizes the contents of the query parameters into a single param string. Note that the
-     * values here are already url percent-encoded
+     * @param timeout milliseconds to wait for the connection to be established, 0 to wait forever
+     *                or -1 to use the default
      * 
-     * @return the query string portion of the URL
+     * @return The request instance for method chaining
      */
-    public String getQueryParamString() {
-        return this.asParamString(this.queryData);
+    public Request setConnectTimeout(int timeout) {
+        this.connectTimeout = timeout < 0 ? -1 : timeout;
+        
+        return this;
     }
     
-    /*
-     ***********************************************************************************************
-     * Form Parameters Methods
-     ***********************************************************************************************
-     */
     /**
-     * Adds the name-value pair into the POST parameters for the request. The name value pair will
-     * be added to the POST body regardless if the request method is POST or not. The key can be
-     * repeatedly used.
-     * 
-     * @param key   The name in the parameter pair
-     * @param value The value in the parameter pair
+     * @param timeout milliseconds to wait for the response head and for each read of the body, 0
+     *                to wait forever or -1 to use the default
      * 
      * @return The request instance for method chaining
      */
-    public Request addPostParam(String key, String value) {
-        if (this.method == Request.Method.GET)
-            this.addQueryParam(key, value);
+    public Request setReadTimeout(int timeout) {
+        this.readTimeout = timeout < 0 ? -1 : timeout;
         
-        this.addMultiParam(this.postData, key, value);
         return this;
     }
     
     /**
-     * Allows retrieval of the value of the specified key as a string. If the key has multiple
-     * values, the last value will be returned. The value returned is not url encoded.
+     * Sets how long the request has from being executed to being complete. Connecting, writing the
+     * body, waiting for the response and reading it all take from the same budget and the
+     * connection is closed once it runs out. The response then has a 408 status.
      * 
-     * @param key The name in the parameter pair
+     * @param deadline milliseconds, 0 for no deadline or -1 to use the default
      * 
-     * @return The value paired with the key.
+     * @return The request instance for method chaining
      */
-    public String getPostValue(String key) {
-        List<String> values = this.postData.get(key);
+    public Request setDeadline(long deadline) {
+        this.deadline = deadline < 0 ? -1 : deadline;
         
-        if (values == null)
-            return "";
-        else
-            return values.get(values.size() - 1);
+        return this;
+    }
+    
+    public int getConnectTimeout() {
+        return this.connectTimeout < 0 ? Request.defaultConnectTimeout : this.connectTimeout;
+    }
+    
+    public int getReadTimeout() {
+        return this.readTimeout < 0 ? Request.defaultReadTimeout : this.readTimeout;
+    }
+    
+    public long getDeadline() {
+        return this.deadline < 0 ? Request.defaultDeadline : this.deadline;
     }
     
     /**
-     * Retrieves all the values of the specified name in the post parameters. Values returned are
-     * not url encoded
-     * 
-     * @param key The name in the parameter pair
-     * @return An unmodifiable list of values
+     * @return true if the last execution ran past its deadline or one of its timeouts
      */
-    public List<String> getPostValues(String key) {
-        return Collections.unmodifiableList(this.postData.get(key));
+    public boolean isTimedOut() {
+        return this.timedOut;
     }
     
     /**
-     * Allows retrieval for all the request's post parameters in one method call. The values will
-     * not be url encoded
+     * Sets the policy deciding whether failed attempts are tried again. Null uses the default
+     * policy.
      * 
-     * @return An unmodifiable map of values
+     * @param policy
+     * 
+     * @return The request instance for method chaining
      */
-    public Map<String, List<String>> getPostParameters() {
-        Map<String, List<String>> output = new HashMap<String, List<String>>();
+    public Request setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
         
-        for (String key : this.postData.keySet())
-            output.put(key, this.getPostValues(key));
+        return this;
+    }
+    
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy == null ? Request.defaultRetryPolicy : this.retryPolicy;
+    }
+    
+    /**
+     * Sets the circuit breaker that fails the request fast while its host keeps failing. Null uses
+     * the default circuit breaker.
+     * 
+     * @param breaker
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request setCircuitBreaker(CircuitBreaker breaker) {
+        this.circuitBreaker = breaker;
+        
+        return this;
+    }
+    
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker == null ? Request.defaultCircuitBreaker : this.circuitBreaker;
+    }
+    
+    /**
+     * @return true if the last attempt was failed fast by the circuit breaker of its host
+     */
+    public boolean isCircuitRejected() {
+        return this.circuitRejected;
+    }
+    
+    /**
+     * @return the number of attempts made by the last execution, including the first one
+     */
+    public int getAttemptCount() {
+        return this.attempt;
+    }
+    
+    /**
+     * @return the I/O error the last attempt failed with, or null if it got a response
+     */
+    public IOException getFailure() {
+        return this.failure;
+    }
+    
+    /**
+     * Allows the request to skip the model cache, e.g. when the user explicitly asks for fresh
+     * data. The parsed models will still be stored in the cache.
+     * 
+     * @param enabled
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request setModelCacheEnabled(boolean enabled) {
+        this.modelCacheEnabled = enabled;
+        
+        return this;
+    }
+    
+    /**
+     * Separates the models cached for this request from those cached for the same url by other
+     * users. Without a scope the identity in the Authorization header is used, which is the token
+     * for requests signed with OAuth.
+     * 
+     * @param scope the scope, such as the id of the signed in user, or null for the default
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request setModelCacheScope(String scope) {
+        this.modelCacheScope = scope;
+        
+        return this;
+    }
+    
+    public String getModelCacheScope() {
+        return this.modelCacheScope;
+    }
+    
+    public Request setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        
+        return this;
+    }
+    
+    /**
+     * Requests used to be run by an AsyncTask set here so that cancel() could stop it. They are
+     * now run by a Dispatcher, which cancel() reaches on its own, so the task is ignored.
+     * 
+     * @param task
+     * 
+     * @return The request instance for method chaining
+     * 
+     * @deprecated use setDispatcher() to choose the threads the request runs on
+     */
+    @Deprecated
+    public Request setAsyncTask(AsyncTask<Void, Void, Void> task) {
+        return this;
+    }
+    
+    public Request removeCookies() {
+        Request.removeCookiesFor(this.url);
+        return this;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Query Parameters Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Adds the name-value pair into the query parameters for the request. The key can be repeatedly
+     * used.
+     * 
+     * @param key   The name in the parameter pair
+     * @param value The value in the parameter pair
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request addQueryParam(String key, String value) {
+        this.addMultiParam(this.queryData, key, value);
+        this.queryString = null;
+        
+        return this;
+    }
+    
+    /**
+     * Allows retrieval of the value of the specified key as a string. If the key has multiple
+     * values, the last value will be returned. The value returned is not url encoded.
+     * 
+     * @param key The name in the parameter pair
+     * 
+     * @return The value paired with the key.
+     */
+    public String getQueryValue(String key) {
+        List<String> values = this.queryData.get(key);
+        
+        if (values == null)
+            return "";
+        
+        return values.get(values.size() - 1);
+    }
+    
+    /**
+     * Retrieves all the values of the specified name in the query parameters.
+     * The values will not be url encoded.
+     * 
+     * @param key The name in the parameter pair
+     * 
+     * @return A unmodifiable list of values
+     */
+    public List<String> getQueryValues(String key) {
+        return Collections.unmodifiableList(this.queryData.get(key));
+    }
+    
+    /**
+     * Allows retrieval for all the request's query parameters in one method call. The values are
+     * not be url encoded
+     * 
+     * @return An unmodifiable map of values
+     */
+    public Map<String, List<String>> getQueryParameters() {
+        Map<String, List<String>> output = new HashMap<String, List<String>>();
+        
+        for (String key : this.queryData.keySet())
+            output.put(key, this.getQueryValues(key));
+        
+        return Collections.unmodifiableMap(output);
+    }
+    
+    /**
+     * Summarizes the contents of the query parameters into a single param string. Note that the
+     * values here are already url percent-encoded
+     * 
+     * @return the query string portion of the URL
+     */
+    public String getQueryParamString() {
+        if (this.queryString == null)
+            this.queryString = this.asParamString(this.queryData);
+        
+        return this.queryString;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Form Parameters Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Adds the name-value pair into the POST parameters for the request. The name value pair will
+     * be added to the POST body regardless if the request method is POST or not. The key can be
+     * repeatedly used.
+     * 
+     * @param key   The name in the parameter pair
+     * @param value The value in the parameter pair
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request addPostParam(String key, String value) {
+        if (this.method == Request.Method.GET)
+            this.addQueryParam(key, value);
+        
+        this.addMultiParam(this.postData, key, value);
+        this.payloadString = null;
+        this.payload       = null;
+        this.multipartBody = null;
+        return this;
+    }
+    
+    /**
+     * Allows retrieval of the value of the specified key as a string. If the key has multiple
+     * values, the last value will be returned. The value returned is not url encoded.
+     * 
+     * @param key The name in the parameter pair
+     * 
+     * @return The value paired with the key.
+     */
+    public String getPostValue(String key) {
+        List<String> values = this.postData.get(key);
+        
+        if (values == null)
+            return "";
+        else
+            return values.get(values.size() - 1);
+    }
+    
+    /**
+     * Retrieves all the values of the specified name in the post parameters. Values returned are
+     * not url encoded
+     * 
+     * @param key The name in the parameter pair
+     * @return An unmodifiable list of values
+     */
+    public List<String> getPostValues(String key) {
+        return Collections.unmodifiableList(this.postData.get(key));
+    }
+    
+    /**
+     * Allows retrieval for all the request's post parameters in one method call. The values will
+     * not be url encoded
+     * 
+     * @return An unmodifiable map of values
+     */
+    public Map<String, List<String>> getPostParameters() {
+        Map<String, List<String>> output = new HashMap<String, List<String>>();
+        
+        for (String key : this.postData.keySet())
+            output.put(key, this.getPostValues(key));
         
         return Collections.unmodifiableMap(output);
     }
     
     /**
-     * Summarizes the contents of the post parameters into a single param string. This will, in the
-     * future, include file parameters. Note that the values here are already url percent-encoded
+     * Summarizes the contents of the post parameters into a single param string. File parameters
+     * are not included; see getMultipartBody(). Note that the values here are already url
+     * percent-encoded
      * 
      * @return the payload
      */
     public String getPayloadString() {
-        return this.asParamString(this.postData);
+        if (this.payloadString == null)
+            this.payloadString = this.asParamString(this.postData);
+        
+        return this.payloadString;
+    }
+    
+    /**
+     * Encodes the payload into UTF-8 bytes. The result is kept until the post parameters change so
+     * the payload is only encoded once per request.
+     * 
+     * @return the encoded payload. This must not be modified
+     */
+    public byte[] getPayload() {
+        if (this.payload == null) {
+            try {
+                this.payload = this.getPayloadString().getBytes("UTF-8");
+            }
+            catch (UnsupportedEncodingException exception) {
+                this.payload = this.getPayloadString().getBytes();
+            }
+        }
+        
+        return this.payload;
     }
     
     /**
-     * Gets the length of the payload. This will include the file parameters (but without having to
-     * read the file) in the future
+     * Gets the length of the url encoded payload in bytes. File parameters are not included; see
+     * getContentLength()
      * 
      * @return the length of the payload
      */
     public int getPayloadLength() {
-        return this.getPayloadString().length();
+        return this.getPayload().length;
+    }
+    
+    /**
+     * @return the length of the request body that will be sent, which is the multipart body if
+     *         there are file parameters and the url encoded payload otherwise
+     */
+    public long getContentLength() {
+        return this.isMultipart() ? this.getMultipartBody().getLength() : this.getPayloadLength();
+    }
+    
+    /**
+     * Sets the listener notified as the request body is written. This is called in the thread
+     * executing the request.
+     * 
+     * @param listener
+     * 
+     * @return The request instance for method chaining
+     */
+    public Request setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+        
+        return this;
     }
     
     /*
      ***********************************************************************************************
      * File Parameters Methods
-     * 
-     * This part is still not final
      ***********************************************************************************************
      */
     /**
      * Adds the name-value pair into the POST parameters for the request as a multipart file data.
      * The name value pair will be added to the POST body regardless if the request method is POST
-     * or not. The key cannot be repeatedly used.
+     * or not. The key cannot be repeatedly used. Once a file is added, the body is sent as
+     * multipart/form-data and the files are streamed from disk while the body is written.
      * 
      * @param key   The name of the parameter pair
-     * @param value The value of the parameter pair
+     * @param value The path of the file to upload
      * 
      * @return The request instance for method chaining
      */
     public Request addFileParam(String key, String value) {
         this.addParam(this.fileData, key, value);
+        this.multipartBody = null;
         return this;
     }
     
+    public boolean isMultipart() {
+        return !this.fileData.isEmpty();
+    }
+    
+    /**
+     * Builds the multipart body out of the post and file parameters. The body is kept until the
+     * parameters change so its boundary and length stay the same between connect() and
+     * writeRequestBody().
+     * 
+     * @return the multipart body
+     */
+    public MultipartBody getMultipartBody() {
+        if (this.multipartBody == null)
+            this.multipartBody = new MultipartBody(this.postData, this.fileData);
+        
+        return this.multipartBody;
+    }
+    
     /**
      * Retrieves the value of the file parameter specified by the key
      * 
@@ -413,6 +1043,16 @@ public class Request {
         return Collections.unmodifiableMap(this.headData);
     }
     
+    /**
+     * @return true if the request carries an OAuth signature. Its nonce and timestamp are only
+     *         good once, so servers reject the request as a replay when it is sent again
+     */
+    public boolean isOAuthSigned() {
+        String authorization = this.getHeader("Authorization");
+        
+        return authorization != null && authorization.contains("oauth_nonce");
+    }
+    
     /*
      ***********************************************************************************************
      * Request-specific Methods
@@ -437,20 +1077,37 @@ public class Request {
         Response response = new Response(this.type, this.responseMode, callback);
         
         response.setModelClass(modelClass)
-                .setParser(parser);
+                .setParser(parser)
+                .setBodyMode(this.bodyMode)
+                .setBodyConsumer(this.bodyConsumer);
+        
+        this.cancelled    = false;
+        this.timedOut     = false;
+        this.attempt      = 1;
+        this.deadlineAt   = this.getDeadline() > 0 ?
+                            SystemClock.elapsedRealtime() + this.getDeadline() :
+                            0;
+        this.callerLooper = async && this.delivery == Delivery.CALLER_THREAD ?
+                            Looper.myLooper() :
+                            null;
+        
+        // Complete right away if the models are already in memory
+        if (this.readModelCache(response, modelClass)) {
+            if (async) {
+                this.getDispatcher().deliver(this, response);
+                return null;
+            }
+            
+            return response;
+        }
         
         if (async) {
-            this.task = new SenderTask(this, response);
-            this.task.execute();
+            this.getDispatcher().enqueue(this, response);
             
             return null;
         }
         else {
-            this.connect()
-                .writeRequestBody()
-                .parseResponseHead(response)
-                .parseResponseBody(response)
-                .disconnect();
+            this.performWithRetries(response);
             
             return response;            
         }
@@ -475,25 +1132,38 @@ public class Request {
         return this.execute(callback, modelClass, true, null);
     }
     
+    /**
+     * Cancels the request. A request still waiting in the Dispatcher's queue is removed from it
+     * while the connection of a running request is closed so that it stops right away, even if it
+     * is blocked on a read. The callback will not be triggered for a cancelled request.
+     */
     public void cancel() {
-        if (this.task == null)
-            return;
+        Dispatcher.Call call = this.call;
+        
+        this.cancelled = true;
         
-        this.task.cancel(true);
+        if (call != null)
+            call.dispatcher.cancel(this);
+        
+        // Unblock the thread running the request unless other requests wait on its result
+        if (this.isCancelled())
+            this.abort();
     }
     
     /**
      * Returns a boolean value representing the currently running request. This should only be
      * usefule when asynchronously executing this instance.
      * 
-     * @return boolean true if the background task executing the request was cancelled or not
+     * @return boolean true if the request was cancelled
      */
     public boolean isCancelled() {
-        // Cannot be cancelled when running synchronously
-        if (this.task == null)
-            return false;
-        else
-            return this.task.isCancelled();
+        Dispatcher.Call call = this.call;
+        
+        // Identical requests may be waiting on this one's result
+        if (call != null && call.request == this)
+            return call.isCancelled();
+        
+        return this.cancelled;
     }
     
     /*
@@ -501,9 +1171,119 @@ public class Request {
      * Request Dispatch Steps
      ***********************************************************************************************
      */
-    public Request connect() {
+    /**
+     * Runs all the dispatch steps in sequence in the current thread. The response is filled in but
+     * not processed
+     * 
+     * @param response
+     * 
+     * @return the current instance
+     */
+    protected Request perform(Response response) {
+        long start = SystemClock.elapsedRealtime();
+        
+        this.failure         = null;
+        this.timedOut        = false;
+        this.circuitPermit   = null;
+        this.circuitRejected = false;
+        this.startWatchdog();
+        
+        this.connect()
+            .writeRequestBody()
+            .parseResponseHead(response)
+            .parseResponseBody(response)
+            .disconnect();
+        
+        if (this.timedOut)
+            response.setStatus(HttpURLConnection.HTTP_CLIENT_TIMEOUT, "Request Timeout")
+                    .setBody(null);
+        else if (this.circuitRejected)
+            response.setStatus(HttpURLConnection.HTTP_UNAVAILABLE, "Service Unavailable")
+                    .setBody(null);
+        
+        this.recordOutcome(response, SystemClock.elapsedRealtime() - start);
+        
+        return this;
+    }
+    
+    /**
+     * Performs the request in the current thread, waiting between the attempts the retry policy
+     * allows
+     * 
+     * @param response
+     * 
+     * @return the current instance
+     */
+    protected Request performWithRetries(Response response) {
+        long delay;
+        
+        while (true) {
+            this.perform(response);
+            
+            if (this.isCancelled() || (delay = this.getRetryDelay(response)) < 0)
+                return this;
+            
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return this;
+            }
+        }
+    }
+    
+    /**
+     * Asks the retry policy whether the attempt that filled in the response should be followed by
+     * another one. If so, the response is cleared for the next attempt.
+     * 
+     * @param response
+     * 
+     * @return the number of milliseconds to wait before the next attempt, or -1 if there should
+     *         be none
+     */
+    protected long getRetryDelay(Response response) {
+        RetryPolicy policy = this.getRetryPolicy();
+        long        delay;
+        
+        // Retrying would only be rejected again while the circuit is open
+        if (this.circuitRejected)
+            return -1;
+        
+        if (policy == null || !policy.shouldRetry(this, response, this.attempt))
+            return -1;
+        
+        delay = policy.getDelay(response, this.attempt);
+        
+        // No point in waiting for an attempt the deadline leaves no time for
+        if (delay < 0 || delay >= this.getRemainingTime())
+            return -1;
+        
+        this.attempt++;
+        response.reset();
+        
+        return delay;
+    }
+    
+    public Request connect() {
         // Do not connect twice
-        if (connection != null)
+        if (connection != null || this.cacheHit)
+            return this;
+        
+        // Serve fresh responses from the cache without going to the network
+        this.openCacheEntry();
+        
+        if (this.cacheHit)
+            return this;
+        
+        // Spent the whole deadline waiting in the queue
+        if (this.deadlineAt != 0 && this.getRemainingTime() <= 0) {
+            this.timedOut = true;
+            return this;
+        }
+        
+        // Fail fast while the host keeps failing
+        if (!this.acquireCircuit())
             return this;
         
         // Initialize connection to configure
@@ -515,8 +1295,17 @@ public class Request {
                 url = String.format("%s?%s", url, query);
             
             connection = (HttpURLConnection)new URL(url).openConnection();
+            
+            this.reusable     = true;
+            this.bodyReleased = false;
+            
+            // The read timeout covers the wait for the response head as well as each body read
+            connection.setConnectTimeout(this.limitTimeout(this.getConnectTimeout()));
+            connection.setReadTimeout(this.limitTimeout(this.getReadTimeout()));
         }
         catch (IOException exception) {
+            Log.e(Constants.LOG_TAG, "Error on opening connection", exception);
+            this.setFailure(exception);
             connection = null;
             return this;
         }
@@ -525,18 +1314,45 @@ public class Request {
         for (String name: this.getHeaders().keySet())
             connection.setRequestProperty(name, this.getHeader(name));
         
+        // Let the server tell us if the cached response is still good
+        if (this.cacheEntry != null) {
+            if (this.cacheEntry.getETag() != null)
+                connection.setRequestProperty("If-None-Match", this.cacheEntry.getETag());
+            
+            if (this.cacheEntry.getLastModified() != null)
+                connection.setRequestProperty(
+                    "If-Modified-Since",
+                    this.cacheEntry.getLastModified()
+                );
+        }
+        
         try {
             String method = this.getMethod();
             
             if (method.equals(Request.Method.POST.name()) ||
                 method.equals(Request.Method.PUT.name())) {
+                long length = this.getContentLength();
+                
                 connection.setDoOutput(true);
-                connection.setFixedLengthStreamingMode(this.getPayloadLength());
+                
+                // The long variant of setFixedLengthStreamingMode() needs API 19
+                if (length <= Integer.MAX_VALUE)
+                    connection.setFixedLengthStreamingMode((int)length);
+                else
+                    connection.setChunkedStreamingMode(0);
+                
+                if (this.isMultipart())
+                    connection.setRequestProperty(
+                        "Content-Type",
+                        this.getMultipartBody().getContentType()
+                    );
             }
             
             connection.setRequestMethod(method);
         }
         catch (ProtocolException exception) {
+            Log.e(Constants.LOG_TAG, "Error on setting request method", exception);
+            this.setFailure(exception);
             connection = null;
             return this;
         }
@@ -544,9 +1360,12 @@ public class Request {
         // Preparations complete. Connect!
         try {
             connection.connect();
+            ConnectionStats.getDefault().recordOpened();
         }
         catch (IOException exception) {
             Log.e(Constants.LOG_TAG, "Error on establishing connection");
+            this.setFailure(exception);
+            connection.disconnect();
             connection = null;
         }
         
@@ -557,27 +1376,32 @@ public class Request {
         if (connection == null || !connection.getDoOutput() || this.isCancelled())
             return this;
         
-        BufferedOutputStream stream = null;
+        OutputStream stream = null;
         
         // Open stream
         try {
-            stream = new BufferedOutputStream(connection.getOutputStream());
+            stream = connection.getOutputStream();
         }
         catch (IOException exception) {
             Log.e(Constants.LOG_TAG, "Error on accessing output stream");
+            this.setFailure(exception);
+            this.reusable = false;
             return this;
         }
         
-        // Write body
+        // Write body in chunks so that a cancellation doesn't have to wait for the whole payload
         try {
-            for (byte data : this.getPayloadString().getBytes())
-                if (this.isCancelled())
-                    break;
-                else
-                    stream.write(data);
+            if (this.isMultipart())
+                this.getMultipartBody().writeTo(stream, this);
+            else
+                this.writePayload(stream, this.getPayload());
         }
         catch (IOException exception) {
-            Log.e(Constants.LOG_TAG, "Error on writing request body");
+            if (!this.isCancelled())
+                Log.e(Constants.LOG_TAG, "Error on writing request body", exception);
+            
+            this.setFailure(exception);
+            this.reusable = false;
         }
         finally {
             try {
@@ -593,6 +1417,14 @@ public class Request {
         if (response == null || this.isCancelled())
             return this;
         
+        if (this.cacheHit) {
+            response
+                .setHeaders(this.cacheEntry.getHeaders())
+                .setStatus(this.cacheEntry.getStatusCode(), this.cacheEntry.getStatusMessage());
+            
+            return this;
+        }
+        
         if (connection == null) {
             response.setStatus(
                 HttpURLConnection.HTTP_BAD_REQUEST,
@@ -601,40 +1433,68 @@ public class Request {
             
             return this;
         }
-            
+        
+        // Response.setStatus() can't tell a timeout from other failures
+        try {
+            connection.getResponseCode();
+        }
+        catch (IOException exception) {
+            this.setFailure(exception);
+        }
         
         response
             .setHeaders(connection)
             .setStatus(connection);
         
-        this.setUrl(connection.getURL().toString());
+        this.updateCache(response);
+        
+        // Kept apart from the request url so that retries don't parse the query string again
+        this.finalUrl = connection.getURL().toString();
         
         return this;
     }
     
     public Request parseResponseBody(Response response) {
-        InputStream           stream;
-        ByteArrayOutputStream data;
+        InputStream stream;
+        long        length;
         
-        if (connection == null || response == null || this.isCancelled())
+        if ((connection == null && !this.cacheHit) || response == null || this.isCancelled())
             return this;
         
         // Open stream
         stream = null;
+        length = -1;
         try {
             String encoding;
             
-            encoding = connection.getContentEncoding();
-            stream   = response.isSuccess() ? connection.getInputStream() :
-                                              connection.getErrorStream();
-            
-            if (encoding != null && encoding.equals("gzip"))
-                stream = new GZIPInputStream(stream);
+            if (this.cacheHit) {
+                stream = this.cacheSnapshot.getBody();
+                length = this.cacheSnapshot.getBodyLength();
+            }
+            else {
+                encoding = connection.getContentEncoding();
+                stream   = response.isSuccess() ? connection.getInputStream() :
+                                                  connection.getErrorStream();
+                
+                // Error responses without a body, or whose head couldn't be read, have no stream
+                if (stream == null)
+                    return this;
+                
+                // Content-Length is the size on the wire which only matches unencoded bodies
+                if (encoding == null || encoding.equals("identity"))
+                    length = connection.getContentLength();
+                else if (encoding.equals("gzip"))
+                    stream = new GZIPInputStream(stream);
+                
+                stream = this.cacheResponseBody(response, stream);
+            }
             
-            stream = new BufferedInputStream(stream);
+            stream = new CancellableInputStream(this, stream);
         }
         catch (IOException exception) {
             Log.e(Constants.LOG_TAG, "Error accessing response stream");
+            this.setFailure(exception);
+            this.reusable = false;
             
             try {
                 stream.close();
@@ -645,51 +1505,81 @@ public class Request {
             return this;
         }
         
-        // Read data from it. Read as raw bytes but I'm not sure if this is memory efficient
-        data = null;
-        try {
-            byte[] buffer;
-            int    bufferLen;
-            
-            data   = new ByteArrayOutputStream(1024);
-            buffer = new byte[1024];
+        // Hand the stream over if the response wants to read it on its own
+        if (response.isStreaming() && response.isSuccess()) {
+            boolean consumed;
             
-            while ((bufferLen = stream.read(buffer)) >= 0)
-                if (this.task != null && this.task.isCancelled())
-                    return this;
-                else
-                    data.write(buffer, 0, bufferLen);
+            try {
+                consumed = response.consume(this, new BufferedInputStream(stream));
+            }
+            catch (IOException exception) {
+                Log.e(Constants.LOG_TAG, "Error on streaming response body", exception);
+                consumed = true;
+            }
             
-            response.setBody(data.toByteArray());
-            buffer = null;
+            if (consumed) {
+                this.closeBody(stream, !this.cacheHit);
+                return this;
+            }
+        }
+        
+        // Read data from it
+        try {
+            if (length >= 0 && length <= Request.MAX_PRESIZED_BODY)
+                this.readBody(response, stream, (int)length);
+            else
+                this.readBody(response, stream, BufferPool.getDefault());
         }
         catch (IOException exception) {
-            Log.e(Constants.LOG_TAG, exception.getMessage());
+            if (!this.isCancelled())
+                Log.e(Constants.LOG_TAG, "Error on reading response body", exception);
+            
+            this.setFailure(exception);
+            this.reusable = false;
         }
         finally {
-            try {
-                data.close();
-            }
-            catch (IOException exception) {}
-            
-            try {
-                stream.close();
-            }
-            catch (IOException exception) {}
+            this.closeBody(stream, !this.cacheHit);
         }
         
         return this;
     }
     
+    /**
+     * Ends the exchange. The connection is left open for reuse if keep-alive is enabled and the
+     * response body could be read to the end; it is closed if the request was cancelled or failed.
+     * 
+     * @return the current instance
+     */
     public Request disconnect() {
+        ConnectionStats stats = ConnectionStats.getDefault();
+        
+        if (this.watchdogTask != null) {
+            this.watchdogTask.cancel(false);
+            this.watchdogTask = null;
+        }
+        
         if (this.connection != null) {
-            connection.disconnect();
+            if (!this.isCancelled() && !this.timedOut && this.keepAlive &&
+                this.releaseConnection()) {
+                stats.recordReleased();
+            }
+            else {
+                connection.disconnect();
+                stats.recordDisconnected(this.isCancelled());
+            }
+            
             connection = null;
         }
         
-        if (this.task != null)
-            this.task = null;
-            
+        if (this.cacheSnapshot != null) {
+            this.cacheSnapshot.close();
+            this.cacheSnapshot = null;
+        }
+        
+        this.cacheKey   = null;
+        this.cacheEntry = null;
+        this.cacheHit   = false;
+        
         return this;
     }
     
@@ -698,6 +1588,92 @@ public class Request {
      * Utility Methods
      ***********************************************************************************************
      */
+    /**
+     * Reads what's left of a response body and closes it. Network bodies that can't be read to
+     * the end make the connection unusable for another request.
+     * 
+     * @param stream
+     * @param network false if the body is read from the cache, in which case it is only closed
+     */
+    protected void closeBody(InputStream stream, boolean network) {
+        try {
+            if (network && !this.drain(stream))
+                this.reusable = false;
+        }
+        catch (IOException exception) {
+            this.reusable = false;
+        }
+        finally {
+            try {
+                stream.close();
+            }
+            catch (IOException exception) {
+                this.reusable = false;
+            }
+        }
+        
+        if (network)
+            this.bodyReleased = true;
+    }
+    
+    /**
+     * Skips the rest of the stream, up to MAX_DRAIN_BYTES
+     * 
+     * @param stream
+     * 
+     * @return true if the end of the stream was reached
+     * 
+     * @throws IOException
+     */
+    protected boolean drain(InputStream stream) throws IOException {
+        BufferPool pool    = BufferPool.getDefault();
+        byte[]     buffer  = pool.acquire();
+        long       drained = 0;
+        int        count;
+        
+        try {
+            while ((count = stream.read(buffer)) >= 0) {
+                drained += count;
+                
+                if (drained > Request.MAX_DRAIN_BYTES)
+                    return false;
+            }
+            
+            return true;
+        }
+        finally {
+            pool.release(buffer);
+            ConnectionStats.getDefault().recordDrained(drained);
+        }
+    }
+    
+    /**
+     * Makes sure the response body of the connection has been read to the end and closed. This is
+     * the case for bodies that were never opened, such as those of 304 responses.
+     * 
+     * @return true if the connection can be reused
+     */
+    protected boolean releaseConnection() {
+        InputStream stream;
+        
+        if (!this.reusable || this.bodyReleased)
+            return this.reusable;
+        
+        try {
+            stream = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ?
+                     connection.getInputStream() :
+                     connection.getErrorStream();
+        }
+        catch (IOException exception) {
+            return false;
+        }
+        
+        if (stream != null)
+            this.closeBody(stream, true);
+        
+        return this.reusable;
+    }
+    
     protected void addMultiParam(Map<String, List<String>> holder, String key, String value) {
         if (key == null)
             return;
@@ -716,15 +1692,500 @@ public class Request {
     }
     
     protected String asParamString(Map<String, List<String>> holder) {
-        String pairFormat = "%s=%s&",
-               output     = "";
+        StringBuilder builder = new StringBuilder();
+        
+        for (Map.Entry<String, List<String>> entry : holder.entrySet()) {
+            for (String value : entry.getValue()) {
+                if (builder.length() > 0)
+                    builder.append('&');
+                
+                builder.append(entry.getKey()).append('=');
+                UrlHelper.percentEncode(value, builder);
+            }
+        }
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Fills in the response with the cached models of this request if there are any. Otherwise the
+     * response is told where to store the models once parsed.
+     * 
+     * @return true if the response was served from the cache
+     */
+    protected boolean readModelCache(Response response, Class<? extends Model> modelClass) {
+        ModelCache       cache = Request.modelCache;
+        ModelCache.Entry entry;
+        String           key;
+        
+        if (cache == null || modelClass == null || this.method != Request.Method.GET)
+            return false;
         
-        for (String key : holder.keySet())
-            for (String value : holder.get(key))
-                output += String.format(pairFormat, key, UrlHelper.percentEncode(value));
+        key = ModelCache.toKey(
+            this.getCacheKey(),
+            this.getModelCacheIdentity(),
+            modelClass,
+            this.responseMode == Response.Mode.MULTIPLE
+        );
+        response.setModelCacheKey(key);
         
-        // remove the trailing &
-        return output.replaceAll("&$", "");
+        if (!this.modelCacheEnabled || (entry = cache.get(key)) == null)
+            return false;
+        
+        response
+            .setCachedModels(entry)
+            .setStatus(HttpURLConnection.HTTP_OK, "OK");
+        
+        return true;
+    }
+    
+    /**
+     * @return the scope of the request in the model cache, hashed so that credentials are not
+     *         kept in the keys
+     */
+    protected String getModelCacheIdentity() {
+        String  authorization = this.getHeader("Authorization");
+        Matcher matcher;
+        
+        if (this.modelCacheScope != null)
+            return DiskCache.toKey(this.modelCacheScope);
+        
+        if (authorization == null)
+            return "";
+        
+        // The nonce, timestamp and signature change with every request while the token doesn't
+        if (this.isOAuthSigned()) {
+            matcher = Request.OAUTH_TOKEN_PATTERN.matcher(authorization);
+            authorization = matcher.find() ? matcher.group(1) : "";
+        }
+        
+        return DiskCache.toKey(authorization);
+    }
+    
+    protected void writePayload(OutputStream stream, byte[] payload) throws IOException {
+        int count;
+        
+        for (int offset = 0; offset < payload.length; offset += count) {
+            if (this.isCancelled())
+                return;
+            
+            this.checkDeadline();
+            
+            count = Math.min(Request.WRITE_CHUNK_SIZE, payload.length - offset);
+            stream.write(payload, offset, count);
+            this.notifyProgress(offset + count, payload.length);
+        }
+    }
+    
+    /**
+     * @return the number of milliseconds left before the deadline, or Long.MAX_VALUE if there's no
+     *         deadline
+     */
+    protected long getRemainingTime() {
+        if (this.deadlineAt == 0)
+            return Long.MAX_VALUE;
+        
+        return this.deadlineAt - SystemClock.elapsedRealtime();
+    }
+    
+    /**
+     * @param timeout a connection timeout in milliseconds, 0 meaning forever
+     * 
+     * @return the timeout shortened so it doesn't run past the deadline
+     */
+    protected int limitTimeout(int timeout) {
+        long remaining = this.getRemainingTime();
+        
+        if (remaining == Long.MAX_VALUE)
+            return timeout;
+        
+        remaining = Math.max(1, remaining);
+        
+        return (int)(timeout == 0 ? Math.min(remaining, Integer.MAX_VALUE) :
+                                    Math.min(remaining, timeout));
+    }
+    
+    /**
+     * Fails the current phase once the deadline has run out
+     * 
+     * @throws SocketTimeoutException
+     */
+    protected void checkDeadline() throws SocketTimeoutException {
+        if (this.deadlineAt != 0 && this.getRemainingTime() <= 0)
+            throw new SocketTimeoutException("Request deadline exceeded");
+    }
+    
+    /**
+     * Records the I/O error that ended the current attempt. Timeouts also mark the request as
+     * timed out.
+     * 
+     * @param exception
+     */
+    protected void setFailure(IOException exception) {
+        this.failure = exception;
+        
+        if (exception instanceof SocketTimeoutException)
+            this.timedOut = true;
+    }
+    
+    /**
+     * Creates a request identical to this one, sharing its deadline, to be performed alongside it.
+     * Callbacks, listeners and consumers are not copied.
+     * 
+     * @return the copy
+     */
+    protected Request copy() {
+        Request copy = new Request(this.url, this.method, this.type, this.responseMode);
+        
+        // The constructor already parsed the url, the current parameters replace what it found
+        copy.queryData.clear();
+        
+        for (Map.Entry<String, List<String>> param : this.queryData.entrySet())
+            copy.queryData.put(param.getKey(), new ArrayList<String>(param.getValue()));
+        
+        for (Map.Entry<String, List<String>> param : this.postData.entrySet())
+            copy.postData.put(param.getKey(), new ArrayList<String>(param.getValue()));
+        
+        copy.fileData.putAll(this.fileData);
+        copy.headData.clear();
+        copy.headData.putAll(this.headData);
+        
+        copy.priority          = this.priority;
+        copy.bodyMode          = this.bodyMode;
+        copy.modelCacheEnabled = this.modelCacheEnabled;
+        copy.modelCacheScope   = this.modelCacheScope;
+        copy.keepAlive         = this.keepAlive;
+        copy.connectTimeout    = this.connectTimeout;
+        copy.readTimeout       = this.readTimeout;
+        copy.deadline          = this.deadline;
+        copy.deadlineAt        = this.deadlineAt;
+        copy.circuitBreaker    = this.circuitBreaker;
+        copy.dispatcher        = this.dispatcher;
+        copy.attempt           = 1;
+        
+        return copy;
+    }
+    
+    /**
+     * Asks the circuit breaker of the request, if any, to let the current attempt through
+     * 
+     * @return false if the attempt should fail fast
+     */
+    protected boolean acquireCircuit() {
+        CircuitBreaker breaker = this.getCircuitBreaker();
+        
+        if (breaker == null)
+            return true;
+        
+        if (!breaker.allowRequest(this.getHost())) {
+            this.circuitRejected = true;
+            return false;
+        }
+        
+        this.circuitPermit = breaker;
+        
+        return true;
+    }
+    
+    /**
+     * Reports the outcome of the current attempt to the circuit breaker which let it through.
+     * Attempts that were cancelled, or beaten by a hedge, have no outcome.
+     * 
+     * @param response
+     * @param duration in milliseconds
+     */
+    protected void recordOutcome(Response response, long duration) {
+        CircuitBreaker  breaker = this.circuitPermit;
+        Dispatcher.Call call    = this.call;
+        
+        if (breaker == null)
+            return;
+        
+        this.circuitPermit = null;
+        
+        if (this.isCancelled() ||
+            call != null && call.request == this && call.race.get() == Dispatcher.Call.HEDGE_WON)
+            breaker.release(this.getHost());
+        else
+            breaker.record(
+                this.getHost(),
+                this.failure != null || this.timedOut || response.getStatusCode() >= 500,
+                duration
+            );
+    }
+    
+    /**
+     * Schedules the connection to be closed when the deadline runs out, which unblocks the thread
+     * if it is stuck connecting or reading
+     */
+    protected void startWatchdog() {
+        if (this.deadlineAt == 0)
+            return;
+        
+        this.watchdogTask = Request.getWatchdog().schedule(
+            new Runnable() {
+                public void run() {
+                    Request.this.timedOut = true;
+                    Request.this.abort();
+                }
+            },
+            Math.max(0, this.getRemainingTime()),
+            TimeUnit.MILLISECONDS
+        );
+    }
+    
+    /**
+     * Closes the connection from another thread so that reads and writes blocked on it fail
+     */
+    protected void abort() {
+        HttpURLConnection connection = this.connection;
+        
+        if (connection != null)
+            connection.disconnect();
+    }
+    
+    protected void notifyProgress(long written, long total) {
+        if (this.progressListener != null)
+            this.progressListener.onProgress(this, written, total);
+    }
+    
+    /**
+     * Reads a body of known length, up to MAX_PRESIZED_BODY, directly into an array of that length.
+     * The array is only copied if the body turns out to be shorter than announced.
+     */
+    protected void readBody(Response response, InputStream stream, int length) throws IOException {
+        byte[] body        = new byte[length];
+        int    allocations = 1,
+               offset      = 0,
+               count;
+        
+        while (offset < length && (count = stream.read(body, offset, length - offset)) >= 0)
+            offset += count;
+        
+        if (offset < length) {
+            body = Arrays.copyOf(body, offset);
+            allocations++;
+        }
+        
+        response.setBody(body)
+                .setBodyAllocationCount(allocations);
+    }
+    
+    /**
+     * Reads a body of unknown length into buffers taken from the pool. Once the whole body has been
+     * read, it is copied into a single array of the exact size and the buffers are released.
+     */
+    protected void readBody(Response response, InputStream stream, BufferPool pool)
+        throws IOException {
+        List<byte[]> chunks      = new ArrayList<byte[]>();
+        byte[]       chunk       = null,
+                     body;
+        int          allocations = 0,
+                     offset      = 0,
+                     length      = 0,
+                     count;
+        
+        try {
+            while (true) {
+                if (chunk == null || offset == chunk.length) {
+                    chunk = pool.poll();
+                    
+                    if (chunk == null) {
+                        chunk = pool.allocate();
+                        allocations++;
+                    }
+                    
+                    chunks.add(chunk);
+                    offset = 0;
+                }
+                
+                if ((count = stream.read(chunk, offset, chunk.length - offset)) < 0)
+                    break;
+                
+                offset += count;
+                length += count;
+            }
+            
+            body = new byte[length];
+            allocations++;
+            
+            offset = 0;
+            for (byte[] data : chunks) {
+                count = Math.min(data.length, length - offset);
+                
+                System.arraycopy(data, 0, body, offset, count);
+                offset += count;
+            }
+        }
+        finally {
+            for (byte[] data : chunks)
+                pool.release(data);
+        }
+        
+        response.setBody(body)
+                .setBodyAllocationCount(allocations);
+    }
+    
+    protected String getCacheKey(String method) {
+        String[]      pairs   = this.getQueryParamString().split("&");
+        StringBuilder builder = new StringBuilder();
+        
+        Arrays.sort(pairs);
+        
+        builder.append(method).append(' ').append(this.url).append('?');
+        for (int i = 0; i < pairs.length; i++)
+            builder.append(i > 0 ? "&" : "").append(pairs[i]);
+        
+        return DiskCache.toKey(builder.toString());
+    }
+    
+    /**
+     * Looks up the cached response of a GET request. A fresh response is served as is while a stale
+     * one is revalidated with the server using the validators it came with.
+     */
+    protected void openCacheEntry() {
+        DiskCache cache = Request.cache;
+        
+        if (cache == null || this.method != Request.Method.GET || this.cacheSnapshot != null)
+            return;
+        
+        // Keep the key of the url as requested since redirects change the url of this instance
+        this.cacheKey      = this.getCacheKey();
+        this.cacheSnapshot = cache.get(this.cacheKey);
+        
+        if (this.cacheSnapshot == null)
+            return;
+        
+        try {
+            this.cacheEntry = CacheEntry.read(this.cacheSnapshot.getMetadata());
+            this.cacheHit   = this.cacheEntry.isFresh(System.currentTimeMillis());
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Discarding unreadable cache entry", exception);
+            
+            this.cacheSnapshot.close();
+            this.cacheSnapshot = null;
+            this.cacheEntry    = null;
+            
+            cache.remove(this.cacheKey);
+        }
+    }
+    
+    /**
+     * Serves a 304 response from the cache after refreshing the stored headers and invalidates the
+     * cached GET response of a resource that was just modified.
+     */
+    protected void updateCache(Response response) {
+        DiskCache        cache = Request.cache;
+        DiskCache.Editor editor;
+        OutputStream     stream;
+        
+        if (this.method != Request.Method.GET) {
+            if (response.isSuccess())
+                this.invalidateCache();
+            
+            return;
+        }
+        
+        if (cache == null)
+            return;
+        
+        if (response.getStatusCode() != HttpURLConnection.HTTP_NOT_MODIFIED ||
+            this.cacheEntry == null)
+            return;
+        
+        this.cacheEntry = this.cacheEntry.update(
+            connection.getHeaderFields(),
+            System.currentTimeMillis()
+        );
+        this.cacheHit   = true;
+        
+        response
+            .setHeaders(this.cacheEntry.getHeaders())
+            .setStatus(this.cacheEntry.getStatusCode(), this.cacheEntry.getStatusMessage());
+        
+        editor = cache.edit(this.cacheKey);
+        if (editor == null)
+            return;
+        
+        try {
+            stream = editor.newMetadataStream();
+            
+            try {
+                this.cacheEntry.write(stream);
+            }
+            finally {
+                stream.close();
+            }
+            
+            editor.commit();
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to write to the cache", exception);
+            
+            editor.abort();
+        }
+    }
+    
+    /**
+     * Drops the response and the models cached for a GET of the url of this request, whatever the
+     * model class or the scope they were cached under
+     */
+    protected void invalidateCache() {
+        String key = this.getCacheKey(Request.Method.GET.name());
+        
+        if (Request.cache != null)
+            Request.cache.remove(key);
+        
+        if (Request.modelCache != null)
+            Request.modelCache.removeRequest(key);
+    }
+    
+    /**
+     * Stores the response body in the cache as it is read if the response may be cached.
+     * 
+     * @return the stream to read the body from
+     */
+    protected InputStream cacheResponseBody(Response response, InputStream stream) {
+        DiskCache        cache = Request.cache;
+        DiskCache.Editor editor;
+        OutputStream     metadata;
+        
+        if (cache == null || this.cacheKey == null ||
+            !CacheEntry.isCacheable(
+                this.getMethod(),
+                response.getStatusCode(),
+                response.headers.asMap()
+            ))
+            return stream;
+        
+        editor = cache.edit(this.cacheKey);
+        if (editor == null)
+            return stream;
+        
+        try {
+            metadata = editor.newMetadataStream();
+            
+            try {
+                new CacheEntry(
+                    response.getStatusCode(),
+                    response.getStatusMessage(),
+                    response.headers.asMap(),
+                    System.currentTimeMillis()
+                ).write(metadata);
+            }
+            finally {
+                metadata.close();
+            }
+            
+            return new CachingInputStream(stream, editor.newBodyStream(), editor);
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to write to the cache", exception);
+            
+            editor.abort();
+            return stream;
+        }
     }
     
     protected void extractQueryParams() {
@@ -752,42 +2213,48 @@ public class Request {
     
     /*
      ***********************************************************************************************
-     * Backend Task for Actual Request Execution
+     * InnerClasses: Progress Listener Interface
+     ***********************************************************************************************
+     */
+    public static interface ProgressListener {
+        public void onProgress(Request request, long written, long total);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Stream Wrapper for Cancellation
      ***********************************************************************************************
      */
-    protected static class SenderTask extends AsyncTask<Void, Void, Void> {
-        protected Request  request;
-        protected Response response;
+    /**
+     * Fails reads once the request has been cancelled so that body consumers and stream parsers
+     * stop at the next read instead of reading the whole body.
+     */
+    protected static class CancellableInputStream extends FilterInputStream {
+        protected Request request;
         
-        protected SenderTask(Request request, Response response) {
-            this.request  = request;
-            this.response = response;
+        protected CancellableInputStream(Request request, InputStream stream) {
+            super(stream);
+            
+            this.request = request;
         }
         
-        /*
-         *******************************************************************************************
-         * Async Task Overrides
-         *******************************************************************************************
-         */
-        protected Void doInBackground(Void ... params) {
-            this.request
-                .connect()
-                .writeRequestBody()
-                .parseResponseHead(this.response)
-                .parseResponseBody(this.response)
-                .disconnect();
-            
-            if (!this.isCancelled())
-                this.response.process();
-            
-            return null;
+        @Override
+        public int read() throws IOException {
+            this.checkCancelled();
+            return super.read();
         }
         
-        protected void onPostExecute(Void result) {
-            if (this.isCancelled())
-                return;
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            this.checkCancelled();
+            return super.read(buffer, offset, length);
+        }
+        
+        protected void checkCancelled() throws IOException {
+            if (this.request.isCancelled())
+                throw new IOException("Request cancelled");
             
-            this.response.triggerCallback(this.request);
+            this.request.checkDeadline();
         }
     }
 }
@@ -1,14 +1,19 @@
 package com.aeroheart.owlery;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.aeroheart.owlery.cache.ModelCache;
 import com.aeroheart.owlery.model.Model;
 import com.aeroheart.owlery.parser.JSONParser;
 import com.aeroheart.owlery.parser.LazyAssIdleParser;
@@ -31,25 +36,59 @@ public class Response {
         OAUTH;
     }
     
+    /**
+     * How the response body is read off the connection. BUFFERED copies the whole body into memory
+     * so it can be retrieved through getBody(). STREAMING hands the connection's stream to the body
+     * consumer or to a StreamParser so only a read buffer is held in memory at any time.
+     */
+    public enum BodyMode {
+        BUFFERED,
+        STREAMING;
+    }
+    
+    /**
+     * Charset the body is decoded with when the Content-Type header doesn't name a supported one
+     */
+    public static final String DEFAULT_CHARSET = "UTF-8";
+    
     protected Type                      type;
     protected Mode                      mode;
+    protected BodyMode                  bodyMode;
     protected Callback                  callback;
+    protected BodyConsumer              consumer;
     
-    protected Map<String, List<String>> headers;
+    protected Headers                   headers;
     protected int                       statusCode;
     protected String                    statusMsg;
     protected byte[]                    body;
+    protected int                       bodyAllocations;
+    
+    /**
+     * The body decoded as text, kept once getBody() has been called
+     */
+    protected String                    bodyText;
+    protected Charset                   charset;
 
     protected Parser                    parser;
     protected Class<? extends Model>    modelClass;
     protected Model                     model;
     protected List<Model>               models;
+    protected boolean                   processed;
+    protected boolean                   cached;
+    
+    /**
+     * The key the parsed models are stored under in the model cache. Null if they shouldn't be
+     */
+    protected String                    modelCacheKey;
     
     public Response(Type type, Mode mode, Callback callback) {
-        this.headers  = new HashMap<String, List<String>>();
+        this.headers  = Headers.EMPTY;
         this.type     = type;
         this.mode     = mode;
+        this.bodyMode = BodyMode.BUFFERED;
         this.body     = null;
+        this.processed = false;
+        this.cached    = false;
         
         this.setCallback(callback);
     }
@@ -69,6 +108,24 @@ public class Response {
         return this;
     }
     
+    public Response setBodyMode(BodyMode bodyMode) {
+        this.bodyMode = bodyMode == null ? BodyMode.BUFFERED : bodyMode;
+        return this;
+    }
+    
+    /**
+     * Sets the consumer which will receive the response body stream when the body mode is
+     * STREAMING. When not set, the body is streamed to the parser if it is a StreamParser.
+     * 
+     * @param consumer
+     * 
+     * @return the current instance
+     */
+    public Response setBodyConsumer(BodyConsumer consumer) {
+        this.consumer = consumer;
+        return this;
+    }
+    
     /**
      * Sets the status code ang status message information from the HttpURLConnection instance
      * 
@@ -110,16 +167,37 @@ public class Response {
     }
     
     public Response setHeaders(HttpURLConnection connection) {
-        Map<String, List<String>> headers = connection.getHeaderFields();
+        this.headers  = Headers.of(connection.getHeaderFields());
+        this.charset  = null;
+        this.bodyText = null;
         
-        if (headers != null)
-            this.headers.putAll(connection.getHeaderFields());
+        return this;
+    }
+    
+    /**
+     * Replaces the headers with the provided ones. This is used when the response is served from
+     * the cache instead of a connection.
+     * 
+     * @param headers
+     * 
+     * @return the current instance
+     */
+    public Response setHeaders(Map<String, List<String>> headers) {
+        this.headers  = Headers.of(headers);
+        this.charset  = null;
+        this.bodyText = null;
         
         return this;
     }
     
     public Response setBody(byte[] body) {
-        this.body = body;
+        this.body     = body;
+        this.bodyText = null;
+        return this;
+    }
+    
+    public Response setBodyAllocationCount(int count) {
+        this.bodyAllocations = count;
         return this;
     }
     
@@ -127,23 +205,44 @@ public class Response {
         return this.statusCode / 100 == 2;
     }
     
+    /**
+     * @return true if the models were taken from the model cache instead of being parsed from a
+     *         response body
+     */
+    public boolean isCached() {
+        return this.cached;
+    }
+    
+    public boolean isStreaming() {
+        return this.bodyMode == BodyMode.STREAMING;
+    }
+    
+    public Headers getHeaders() {
+        return this.headers;
+    }
+    
     public List<String> getHeaderNames() {
-        List<String> headers = new ArrayList<String>();
-        
-        for (String header : this.headers.keySet())
-            headers.add(header);
-        
-        return Collections.unmodifiableList(headers);
+        return this.headers.getNames();
     }
     
+    /**
+     * Case-insensitive header lookup
+     * 
+     * @param name
+     * 
+     * @return the last value of the header or null if there is none
+     */
     public String getHeaderValue(String name) {
-        List<String> values = this.getHeaderValues(name);
-        
-        return values.get(values.size() - 1);
+        return this.headers.get(name);
     }
     
+    /**
+     * @param name
+     * 
+     * @return the values of the header, or an empty list if there is none
+     */
     public List<String> getHeaderValues(String name) {
-        return Collections.unmodifiableList(this.headers.get(name));
+        return this.headers.getAll(name);
     }
     
     public int getStatusCode() {
@@ -154,23 +253,53 @@ public class Response {
         return this.statusMsg;
     }
     
+    /**
+     * Decodes the body with the charset of the response. The text is decoded on the first call
+     * only and the same String is returned afterwards.
+     * 
+     * @return the body as text
+     */
     public String getBody() {
-        String body;
+        if (this.body == null)
+            return "";
         
-        try {
-            body = new String(this.body, "UTF-8");
-        }
-        catch (UnsupportedEncodingException exception) {
-            body = "";
-        }
+        if (this.bodyText == null)
+            this.bodyText = new String(this.body, this.getCharset());
+        
+        return this.bodyText;
+    }
+    
+    /**
+     * Creates a reader over the body which decodes it as it is read rather than building the whole
+     * text up front. Use this instead of getBody() for large bodies that are only read once.
+     * 
+     * @return a reader of the body as text
+     */
+    public Reader getBodyReader() {
+        if (this.bodyText != null)
+            return new StringReader(this.bodyText);
+        
+        return new InputStreamReader(
+            new ByteArrayInputStream(this.getBodyRaw()),
+            this.getCharset()
+        );
+    }
+    
+    /**
+     * @return the charset named by the Content-Type header, or DEFAULT_CHARSET if there's none or
+     *         it isn't supported
+     */
+    public Charset getCharset() {
+        if (this.charset == null)
+            this.charset = Response.parseCharset(this.headers.get("Content-Type"));
         
-        return body;
+        return this.charset;
     }
     
     /**
      * Returns the raw byte array form of the response body. Exercise care in using this as the
      * reference of the byte array is returned. Changes made by this return value will most likely
-     * reflect in this instance's body data. 
+     * reflect in this instance's body data, except in the text already returned by getBody().
      * 
      * @return the body as a byte array
      */
@@ -181,6 +310,14 @@ public class Response {
             return this.body;
     }
     
+    /**
+     * @return the number of byte arrays allocated while reading the body. Buffers reused from the
+     *         buffer pool are not counted
+     */
+    public int getBodyAllocationCount() {
+        return this.bodyAllocations;
+    }
+    
     public Model getModel() {
         return this.model;
     }
@@ -194,6 +331,46 @@ public class Response {
      * Response Processing
      ***********************************************************************************************
      */
+    /**
+     * Reads the response body straight off the provided stream. The body consumer is given the
+     * stream if there is one, otherwise the stream is parsed as it is read if the parser is a
+     * StreamParser. Nothing is read if neither is available so that the caller can fall back to
+     * buffering the body.
+     * 
+     * @param request the request this is the response of
+     * @param stream  the response body stream. This is not closed by this method
+     * 
+     * @return true if the stream was consumed
+     * 
+     * @throws IOException
+     */
+    public boolean consume(Request request, InputStream stream) throws IOException {
+        Parser parser;
+        Reader reader;
+        
+        if (this.consumer != null) {
+            this.consumer.consume(request, this, stream);
+            return true;
+        }
+        
+        parser = this.getParser();
+        
+        if (!(parser instanceof StreamParser))
+            return false;
+        
+        reader = new InputStreamReader(stream, this.getCharset());
+        
+        if (this.mode == Mode.SINGLE)
+            this.setModel(((StreamParser)parser).parseSingle(reader));
+        else
+            this.setModels(((StreamParser)parser).parseMultiple(reader));
+        
+        this.processed = true;
+        this.storeModels();
+        
+        return true;
+    }
+    
     public Response process() {
         Parser parser;
         String responseBody;
@@ -205,6 +382,62 @@ public class Response {
             return this;
         }
         
+        // Already parsed while streaming the body
+        if (this.processed)
+            return this;
+        
+        parser = this.getParser();
+        
+        // Decode as the parser reads unless the text is around already
+        if (parser instanceof StreamParser && this.bodyText == null) {
+            this.parseBody((StreamParser)parser);
+            
+            this.processed = true;
+            this.storeModels();
+            
+            return this;
+        }
+        
+        if (parser instanceof LazyAssIdleParser)
+            responseBody = null;
+        else
+            responseBody = this.getBody();
+        
+        if (this.mode == Mode.SINGLE)
+            this.setModel(parser.parseSingle(responseBody));
+        else
+            this.setModels(parser.parseMultiple(responseBody));
+        
+        this.processed = true;
+        this.storeModels();
+        
+        return this;
+    }
+    
+    /**
+     * Parses the buffered body through a reader. A body which fails to parse gives the same result
+     * as it would through the String based methods.
+     * 
+     * @param parser
+     */
+    protected void parseBody(StreamParser parser) {
+        try {
+            if (this.mode == Mode.SINGLE)
+                this.setModel(parser.parseSingle(this.getBodyReader()));
+            else
+                this.setModels(parser.parseMultiple(this.getBodyReader()));
+        }
+        catch (IOException exception) {
+            if (this.mode == Mode.SINGLE)
+                this.setModel(null);
+            else
+                this.setModels(null);
+        }
+    }
+    
+    protected Parser getParser() {
+        Parser parser;
+        
         if (this.parser == null)
             if (this.type == Type.OAUTH)
                 parser = new OAuthParser();
@@ -217,25 +450,146 @@ public class Response {
         
         parser.setModelClass(this.modelClass);
         
-        if (parser instanceof LazyAssIdleParser)
-            responseBody = null;
-        else
-            responseBody = this.getBody();
+        return parser;
+    }
+    
+    /**
+     * Copies the result of another response to the same request into this instance. Used when the
+     * result of a request is shared with identical requests.
+     * 
+     * @param response
+     * 
+     * @return the current instance
+     */
+    protected Response copyFrom(Response response) {
+        this.headers    = response.headers;
+        this.statusCode = response.statusCode;
+        this.statusMsg  = response.statusMsg;
+        this.body       = response.body;
+        this.bodyText   = response.bodyText;
+        this.charset    = response.charset;
+        this.model      = response.model;
+        this.models     = response.models;
+        this.processed  = response.processed;
+        this.cached     = response.cached;
         
-        if (this.mode == Mode.SINGLE) {
-            this.model  = parser.parseSingle(responseBody);
-            this.models = new ArrayList<Model>();
-            
-            this.models.add(this.model);
-        }
-        else {
-            this.models = parser.parseMultiple(responseBody);
-            this.model  = this.models.get(0);
-        }
+        return this;
+    }
+    
+    /**
+     * Creates a response configured like this one, with no result and no callback
+     * 
+     * @return the new instance
+     */
+    protected Response copySettings() {
+        Response copy = new Response(this.type, this.mode, null);
+        
+        copy.bodyMode      = this.bodyMode;
+        copy.parser        = this.parser;
+        copy.modelClass    = this.modelClass;
+        copy.modelCacheKey = this.modelCacheKey;
+        
+        return copy;
+    }
+    
+    /**
+     * Clears the result of a failed attempt so the request can be tried again
+     * 
+     * @return the current instance
+     */
+    protected Response reset() {
+        this.headers    = Headers.EMPTY;
+        this.statusCode = 0;
+        this.statusMsg  = null;
+        this.body       = null;
+        this.bodyText   = null;
+        this.charset    = null;
+        this.model      = null;
+        this.models     = null;
+        this.processed  = false;
+        this.cached     = false;
+        
+        return this;
+    }
+    
+    protected Response setModelCacheKey(String key) {
+        this.modelCacheKey = key;
+        return this;
+    }
+    
+    /**
+     * Fills in the response with models served from the model cache. No parsing will take place.
+     * 
+     * @param entry
+     * 
+     * @return the current instance
+     */
+    protected Response setCachedModels(ModelCache.Entry entry) {
+        this.model     = entry.getModel();
+        this.models    = entry.getModels();
+        this.processed = true;
+        this.cached    = true;
         
         return this;
     }
     
+    /**
+     * @param contentType
+     * 
+     * @return the charset named by the content type, or DEFAULT_CHARSET
+     */
+    protected static Charset parseCharset(String contentType) {
+        String name;
+        int    idx;
+        
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                idx = parameter.indexOf('=');
+                
+                if (idx < 0 || !parameter.substring(0, idx).trim().equalsIgnoreCase("charset"))
+                    continue;
+                
+                name = parameter.substring(idx + 1).trim();
+                
+                if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\""))
+                    name = name.substring(1, name.length() - 1);
+                
+                try {
+                    if (Charset.isSupported(name))
+                        return Charset.forName(name);
+                }
+                catch (IllegalCharsetNameException exception) {
+                    // Fall back to the default
+                }
+                
+                break;
+            }
+        }
+        
+        return Charset.forName(Response.DEFAULT_CHARSET);
+    }
+    
+    protected void storeModels() {
+        ModelCache cache = Request.getModelCache();
+        
+        if (cache == null || this.modelCacheKey == null || this.model == null)
+            return;
+        
+        cache.put(this.modelCacheKey, this.model, this.models);
+    }
+    
+    protected void setModel(Model model) {
+        this.model  = model;
+        this.models = new ArrayList<Model>();
+        
+        this.models.add(this.model);
+    }
+    
+    protected void setModels(List<Model> models) {
+        this.models = models;
+        this.model  = models == null || models.isEmpty() ? null : models.get(0);
+    }
+    
     public Response triggerCallback(Request request) {
         if (this.callback == null)
             return this;
@@ -274,4 +628,28 @@ public class Response {
         public Model parseSingle(String data);
         public List<Model> parseMultiple(String data);
     }
+    
+    /**
+     * A parser which is able to read the response body as it arrives. Used instead of the String
+     * based methods when the response is in STREAMING body mode.
+     */
+    public static interface StreamParser extends Parser {
+        public Model parseSingle(Reader reader) throws IOException;
+        public List<Model> parseMultiple(Reader reader) throws IOException;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Body Consumer Interface
+     ***********************************************************************************************
+     */
+    /**
+     * Receives the response body stream directly from the connection when the response is in
+     * STREAMING body mode. This is called in the thread executing the request and the stream is
+     * closed once this returns.
+     */
+    public static interface BodyConsumer {
+        public void consume(Request request, Response response, InputStream stream)
+            throws IOException;
+    }
 }
@@ -0,0 +1,230 @@
+package com.aeroheart.owlery;
+
+import java.net.MalformedURLException;
+import java.util.Date;
+import java.util.Random;
+
+import com.aeroheart.owlery.cache.CacheEntry;
+
+/**
+ * Decides whether a failed attempt of a request is tried again and how long to wait before doing
+ * so. Only idempotent requests are retried, after an I/O error or a 429, 500, 502, 503 or 504
+ * response. Requests signed with OAuth are never retried since their signature is only good once.
+ * 
+ * The wait grows exponentially with every attempt and is drawn at random between zero and that
+ * bound ("full jitter") so that clients failing together don't come back together. A Retry-After
+ * header sent with the response replaces the computed wait; a wait longer than the maximum the
+ * policy accepts ends the retries instead.
+ * 
+ * The policy can also enable hedging: when a GET has been running longer than the given
+ * percentile of the recent latencies of its host, a second, identical request is sent and the
+ * first of the two to succeed wins. Hedging only takes place for requests run by the Dispatcher.
+ * 
+ * @author aeroheart.c6
+ */
+public class RetryPolicy {
+    public static final int  DEFAULT_MAX_ATTEMPTS    = 3;
+    public static final long DEFAULT_BASE_DELAY      = 250;
+    public static final long DEFAULT_MAX_DELAY       = 10000;
+    public static final long DEFAULT_MAX_RETRY_AFTER = 60000;
+    
+    protected static final Random random = new Random();
+    
+    protected int    maxAttempts;
+    protected long   baseDelay;
+    protected long   maxDelay;
+    protected long   maxRetryAfter;
+    
+    /**
+     * The latency percentile after which a GET is hedged, between 0 and 1, and the minimum time to
+     * wait before hedging. A percentile of 0 disables hedging
+     */
+    protected double hedgePercentile;
+    protected long   minHedgeDelay;
+    
+    public RetryPolicy() {
+        this.maxAttempts   = RetryPolicy.DEFAULT_MAX_ATTEMPTS;
+        this.baseDelay     = RetryPolicy.DEFAULT_BASE_DELAY;
+        this.maxDelay      = RetryPolicy.DEFAULT_MAX_DELAY;
+        this.maxRetryAfter = RetryPolicy.DEFAULT_MAX_RETRY_AFTER;
+        this.hedgePercentile = 0;
+        this.minHedgeDelay   = 0;
+    }
+    
+    /**
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * 
+     * @return the current instance
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+    
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+    
+    /**
+     * Sets the bounds of the wait between attempts. The bound doubles with every attempt, starting
+     * from the base delay, until it reaches the maximum.
+     * 
+     * @param baseDelay in milliseconds
+     * @param maxDelay  in milliseconds
+     * 
+     * @return the current instance
+     */
+    public RetryPolicy setDelays(long baseDelay, long maxDelay) {
+        this.baseDelay = Math.max(0, baseDelay);
+        this.maxDelay  = Math.max(this.baseDelay, maxDelay);
+        return this;
+    }
+    
+    public long getBaseDelay() {
+        return this.baseDelay;
+    }
+    
+    public long getMaxDelay() {
+        return this.maxDelay;
+    }
+    
+    /**
+     * @param maxRetryAfter the longest Retry-After wait, in milliseconds, the policy will honor.
+     *                      Responses asking for a longer one are not retried
+     * 
+     * @return the current instance
+     */
+    public RetryPolicy setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+        return this;
+    }
+    
+    public long getMaxRetryAfter() {
+        return this.maxRetryAfter;
+    }
+    
+    /**
+     * Enables hedging of GET requests
+     * 
+     * @param percentile    the latency percentile of the host after which a second request is
+     *                      sent, such as 0.95. 0 disables hedging
+     * @param minHedgeDelay the minimum time, in milliseconds, to wait before hedging, whatever the
+     *                      recent latencies are
+     * 
+     * @return the current instance
+     */
+    public RetryPolicy setHedging(double percentile, long minHedgeDelay) {
+        this.hedgePercentile = Math.max(0, Math.min(1, percentile));
+        this.minHedgeDelay   = Math.max(0, minHedgeDelay);
+        return this;
+    }
+    
+    public boolean isHedging() {
+        return this.hedgePercentile > 0;
+    }
+    
+    public double getHedgePercentile() {
+        return this.hedgePercentile;
+    }
+    
+    public long getMinHedgeDelay() {
+        return this.minHedgeDelay;
+    }
+    
+    /**
+     * @param request
+     * 
+     * @return true if sending the request more than once has the same effect as sending it once
+     */
+    public boolean isIdempotent(Request request) {
+        String method = request.getMethod();
+        
+        return "GET".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+    }
+    
+    /**
+     * @param request
+     * @param response the response of the attempt that just completed
+     * @param attempt  the number of the attempt that just completed, starting from 1
+     * 
+     * @return true if the request should be tried again
+     */
+    public boolean shouldRetry(Request request, Response response, int attempt) {
+        if (attempt >= this.maxAttempts || !this.isIdempotent(request))
+            return false;
+        
+        // Resending the signature would be rejected as a replay
+        if (request.isOAuthSigned())
+            return false;
+        
+        // A malformed url fails the same way every time
+        if (request.getFailure() instanceof MalformedURLException)
+            return false;
+        
+        if (request.getFailure() != null)
+            return true;
+        
+        return RetryPolicy.isRetryableStatus(response.getStatusCode());
+    }
+    
+    /**
+     * @param response the response of the attempt that just completed
+     * @param attempt  the number of the attempt that just completed, starting from 1
+     * 
+     * @return the number of milliseconds to wait before the next attempt, or -1 if the server
+     *         asked for a longer wait than the policy accepts
+     */
+    public long getDelay(Response response, int attempt) {
+        long retryAfter = RetryPolicy.parseRetryAfter(response.getHeaderValue("Retry-After"));
+        long bound;
+        
+        if (retryAfter >= 0)
+            return retryAfter > this.maxRetryAfter ? -1 : retryAfter;
+        
+        // Any sensible max delay is reached long before the shift could overflow
+        bound = attempt > 30 ?
+                this.maxDelay :
+                Math.min(this.maxDelay, this.baseDelay << (attempt - 1));
+        
+        return (long)(RetryPolicy.random.nextDouble() * bound);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static boolean isRetryableStatus(int status) {
+        return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+    
+    /**
+     * @param value the Retry-After header, either a number of seconds or an HTTP date
+     * 
+     * @return the wait in milliseconds, or -1 if the value is missing or malformed
+     */
+    protected static long parseRetryAfter(String value) {
+        Date date;
+        long seconds;
+        
+        if (value == null)
+            return -1;
+        
+        value = value.trim();
+        
+        try {
+            seconds = Long.parseLong(value);
+            
+            // Too far away to ever be waited for
+            if (seconds > Long.MAX_VALUE / 1000)
+                return Long.MAX_VALUE;
+            
+            return Math.max(0, seconds * 1000);
+        }
+        catch (NumberFormatException exception) {
+            date = CacheEntry.parseDate(value);
+        }
+        
+        return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+}
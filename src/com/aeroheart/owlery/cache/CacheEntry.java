@@ -0,0 +1,359 @@
+package com.aeroheart.owlery.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * The status line and headers of a cached response along with the HTTP caching rules that apply
+ * to them. The body itself is kept by DiskCache next to the serialized form of this class.
+ * 
+ * @author aeroheart.c6
+ */
+public class CacheEntry {
+    protected static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    
+    /**
+     * Headers that describe the body as it was sent over the wire. Bodies are stored already
+     * decoded so these no longer apply to them.
+     */
+    protected static final String[] WIRE_HEADERS = {
+        "Content-Encoding",
+        "Content-Length",
+        "Transfer-Encoding"
+    };
+    
+    /**
+     * Checks whether a response may be stored at all. Only complete 200 responses to GET requests
+     * which carry either a freshness lifetime or a validator are worth storing.
+     * 
+     * @param method     the request method
+     * @param statusCode the response status code
+     * @param headers    the response headers
+     * 
+     * @return true if the response may be stored
+     */
+    public static boolean isCacheable(
+        String method, int statusCode,
+        Map<String, List<String>> headers
+    ) {
+        CacheEntry entry;
+        String     vary;
+        
+        if (!"GET".equals(method) || statusCode != 200)
+            return false;
+        
+        entry = new CacheEntry(statusCode, null, headers, System.currentTimeMillis());
+        vary  = entry.getHeader("Vary");
+        
+        if (entry.hasDirective("no-store"))
+            return false;
+        
+        // Responses that vary on request headers other than the encoding can't be keyed by url
+        if (vary != null && !vary.trim().equalsIgnoreCase("Accept-Encoding"))
+            return false;
+        
+        return entry.getFreshnessLifetime() > 0 ||
+               entry.getETag() != null ||
+               entry.getLastModified() != null;
+    }
+    
+    /**
+     * Reads an entry previously written with write()
+     * 
+     * @param stream
+     * 
+     * @return the entry
+     * 
+     * @throws IOException if the data is incomplete or malformed
+     */
+    public static CacheEntry read(InputStream stream) throws IOException {
+        BufferedReader            reader;
+        Map<String, List<String>> headers;
+        long                      storedAt;
+        int                       statusCode,
+                                  count;
+        String                    statusMsg;
+        
+        reader  = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        headers = new LinkedHashMap<String, List<String>>();
+        
+        try {
+            storedAt   = Long.parseLong(CacheEntry.readLine(reader));
+            statusCode = Integer.parseInt(CacheEntry.readLine(reader));
+            statusMsg  = CacheEntry.readLine(reader);
+            count      = Integer.parseInt(CacheEntry.readLine(reader));
+        }
+        catch (NumberFormatException exception) {
+            throw new IOException("Malformed cache entry");
+        }
+        
+        for (int i = 0; i < count; i++) {
+            String line  = CacheEntry.readLine(reader);
+            int    index = line.indexOf(':');
+            
+            if (index < 0)
+                throw new IOException("Malformed cache entry header");
+            
+            CacheEntry.addHeader(
+                headers,
+                line.substring(0, index),
+                line.substring(index + 1).trim()
+            );
+        }
+        
+        return new CacheEntry(statusCode, statusMsg, headers, storedAt);
+    }
+    
+    
+    protected int                       statusCode;
+    protected String                    statusMsg;
+    protected Map<String, List<String>> headers;
+    protected long                      storedAt;
+    
+    /**
+     * @param statusCode
+     * @param statusMsg
+     * @param headers    the response headers. The status line entry (null key) and the headers that
+     *                   describe the wire encoding of the body are left out
+     * @param storedAt   the time, in milliseconds, the response was received
+     */
+    public CacheEntry(
+        int statusCode, String statusMsg,
+        Map<String, List<String>> headers,
+        long storedAt
+    ) {
+        this.statusCode = statusCode;
+        this.statusMsg  = statusMsg == null ? "" : statusMsg;
+        this.storedAt   = storedAt;
+        this.headers    = new LinkedHashMap<String, List<String>>();
+        
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null || CacheEntry.isWireHeader(header.getKey()))
+                continue;
+            
+            for (String value : header.getValue())
+                CacheEntry.addHeader(this.headers, header.getKey(), value);
+        }
+    }
+    
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+    
+    public String getStatusMessage() {
+        return this.statusMsg;
+    }
+    
+    public Map<String, List<String>> getHeaders() {
+        return Collections.unmodifiableMap(this.headers);
+    }
+    
+    public long getStoredAt() {
+        return this.storedAt;
+    }
+    
+    /**
+     * Case-insensitive header lookup
+     * 
+     * @param name
+     * 
+     * @return the last value of the header or null if there is none
+     */
+    public String getHeader(String name) {
+        String value = null;
+        
+        for (Map.Entry<String, List<String>> header : this.headers.entrySet())
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty())
+                value = header.getValue().get(header.getValue().size() - 1);
+        
+        return value;
+    }
+    
+    public String getETag() {
+        return this.getHeader("ETag");
+    }
+    
+    public String getLastModified() {
+        return this.getHeader("Last-Modified");
+    }
+    
+    /**
+     * @return the number of milliseconds the response stays fresh after it was received, or 0 if it
+     *         has to be revalidated every time
+     */
+    public long getFreshnessLifetime() {
+        String maxAge;
+        Date   expires,
+               date;
+        
+        if (this.hasDirective("no-cache"))
+            return 0;
+        
+        maxAge = this.getDirectiveValue("max-age");
+        if (maxAge != null) {
+            try {
+                return Math.max(0, Long.parseLong(maxAge)) * 1000;
+            }
+            catch (NumberFormatException exception) {
+                return 0;
+            }
+        }
+        
+        expires = CacheEntry.parseDate(this.getHeader("Expires"));
+        if (expires == null)
+            return 0;
+        
+        date = CacheEntry.parseDate(this.getHeader("Date"));
+        
+        return Math.max(0, expires.getTime() - (date == null ? this.storedAt : date.getTime()));
+    }
+    
+    public boolean isFresh(long now) {
+        return now - this.storedAt < this.getFreshnessLifetime();
+    }
+    
+    /**
+     * Creates the entry that results from revalidating this one: the headers of the 304 response
+     * replace the stored ones and the entry is considered received now.
+     * 
+     * @param headers the headers of the 304 response
+     * @param now
+     * 
+     * @return the updated entry
+     */
+    public CacheEntry update(Map<String, List<String>> headers, long now) {
+        Map<String, List<String>> merged = new LinkedHashMap<String, List<String>>(this.headers);
+        
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null || CacheEntry.isWireHeader(header.getKey()))
+                continue;
+            
+            for (String name : merged.keySet().toArray(new String[0]))
+                if (name.equalsIgnoreCase(header.getKey()))
+                    merged.remove(name);
+            
+            merged.put(header.getKey(), header.getValue());
+        }
+        
+        return new CacheEntry(this.statusCode, this.statusMsg, merged, now);
+    }
+    
+    public void write(OutputStream stream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+        int    count  = 0;
+        
+        for (List<String> values : this.headers.values())
+            count += values.size();
+        
+        writer.write(this.storedAt + "\n");
+        writer.write(this.statusCode + "\n");
+        writer.write(this.statusMsg.replace('\n', ' ') + "\n");
+        writer.write(count + "\n");
+        
+        for (Map.Entry<String, List<String>> header : this.headers.entrySet())
+            for (String value : header.getValue())
+                writer.write(header.getKey() + ": " + value.replace('\n', ' ') + "\n");
+        
+        writer.flush();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected boolean hasDirective(String directive) {
+        String cacheControl = this.getHeader("Cache-Control"),
+               pragma       = this.getHeader("Pragma");
+        
+        if (directive.equals("no-cache") && pragma != null && pragma.contains("no-cache"))
+            return true;
+        
+        if (cacheControl == null)
+            return false;
+        
+        for (String part : cacheControl.split(","))
+            if (part.trim().toLowerCase(Locale.US).startsWith(directive))
+                return true;
+        
+        return false;
+    }
+    
+    protected String getDirectiveValue(String directive) {
+        String cacheControl = this.getHeader("Cache-Control");
+        
+        if (cacheControl == null)
+            return null;
+        
+        for (String part : cacheControl.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase(directive))
+                return pair[1].trim().replace("\"", "");
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @param value an HTTP date such as the value of the Date or Expires header
+     * 
+     * @return the date, or null if the value is missing or malformed
+     */
+    public static Date parseDate(String value) {
+        SimpleDateFormat format;
+        
+        if (value == null)
+            return null;
+        
+        format = new SimpleDateFormat(CacheEntry.HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        
+        try {
+            return format.parse(value);
+        }
+        catch (ParseException exception) {
+            return null;
+        }
+    }
+    
+    protected static boolean isWireHeader(String name) {
+        for (String header : CacheEntry.WIRE_HEADERS)
+            if (header.equalsIgnoreCase(name))
+                return true;
+        
+        return false;
+    }
+    
+    protected static void addHeader(Map<String, List<String>> headers, String name, String value) {
+        if (!headers.containsKey(name))
+            headers.put(name, new ArrayList<String>());
+        
+        headers.get(name).add(value);
+    }
+    
+    protected static String readLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        
+        if (line == null)
+            throw new IOException("Truncated cache entry");
+        
+        return line;
+    }
+}
@@ -0,0 +1,135 @@
+package com.aeroheart.owlery.cache;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything read from the wrapped stream into a cache entry's body. The entry is committed
+ * once the end of the stream is reached and aborted if the stream is closed before that, so that a
+ * partially read body is never served from the cache.
+ * 
+ * @author aeroheart.c6
+ */
+public class CachingInputStream extends FilterInputStream {
+    /**
+     * Maximum number of unread bytes drained on close. Parsers usually stop right before trailing
+     * whitespace; anything longer than this means the body was abandoned.
+     */
+    protected static final int DRAIN_LIMIT = 2048;
+    
+    protected OutputStream      output;
+    protected DiskCache.Editor  editor;
+    protected boolean           complete;
+    protected boolean           failed;
+    
+    public CachingInputStream(InputStream stream, OutputStream output, DiskCache.Editor editor) {
+        super(stream);
+        
+        this.output   = output;
+        this.editor   = editor;
+        this.complete = false;
+        this.failed   = false;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        int data = super.read();
+        
+        if (data < 0)
+            this.complete = true;
+        else
+            this.copy(new byte[] {(byte)data}, 0, 1);
+        
+        return data;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        
+        if (count < 0)
+            this.complete = true;
+        else
+            this.copy(buffer, offset, count);
+        
+        return count;
+    }
+    
+    @Override
+    public long skip(long count) throws IOException {
+        byte[] buffer  = new byte[(int)Math.min(count, 1024)];
+        long   skipped = 0;
+        int    length;
+        
+        while (skipped < count) {
+            length = this.read(buffer, 0, (int)Math.min(buffer.length, count - skipped));
+            
+            if (length < 0)
+                break;
+            
+            skipped += length;
+        }
+        
+        return skipped;
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!this.complete && !this.failed)
+            this.drain();
+        
+        try {
+            this.output.close();
+        }
+        catch (IOException exception) {
+            this.failed = true;
+        }
+        
+        if (this.complete && !this.failed)
+            this.editor.commit();
+        else
+            this.editor.abort();
+        
+        super.close();
+    }
+    
+    protected void copy(byte[] buffer, int offset, int length) {
+        if (this.failed)
+            return;
+        
+        try {
+            this.output.write(buffer, offset, length);
+        }
+        catch (IOException exception) {
+            // The reader should not fail because the cache couldn't be written
+            this.failed = true;
+        }
+    }
+    
+    protected void drain() {
+        byte[] buffer  = new byte[256];
+        int    drained = 0,
+               length;
+        
+        try {
+            while (drained <= CachingInputStream.DRAIN_LIMIT) {
+                length = this.read(buffer, 0, buffer.length);
+                
+                if (length < 0)
+                    return;
+                
+                drained += length;
+            }
+        }
+        catch (IOException exception) {
+            this.failed = true;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.aeroheart.owlery.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+import com.aeroheart.owlery.Constants;
+
+/**
+ * A least-recently-used store of files on disk bounded by the total number of bytes it holds. Each
+ * entry is made of a metadata file and a body file. Every change is appended to a journal so that
+ * the index and the access order can be restored when the cache is opened again.
+ * 
+ * @author aeroheart.c6
+ */
+public class DiskCache {
+    protected static final String JOURNAL_FILE       = "journal";
+    protected static final String JOURNAL_FILE_TEMP  = "journal.tmp";
+    protected static final String JOURNAL_MAGIC      = "owlery.DiskCache";
+    protected static final String JOURNAL_VERSION    = "1";
+    protected static final String CLEAN              = "CLEAN";
+    protected static final String REMOVE             = "REMOVE";
+    protected static final String READ               = "READ";
+    
+    /**
+     * Number of journal lines that no longer describe an entry after which the journal is rebuilt
+     */
+    protected static final int    REDUNDANT_OP_LIMIT = 2000;
+    
+    /**
+     * Turns an arbitrary string into a key that is safe to use as a file name
+     * 
+     * @param value
+     * 
+     * @return the hex encoded MD5 digest of the value
+     */
+    public static String toKey(String value) {
+        StringBuilder builder = new StringBuilder(32);
+        
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            
+            for (byte data : digest.digest(value.getBytes("UTF-8")))
+                builder.append(Character.forDigit((data >> 4) & 0xf, 16))
+                       .append(Character.forDigit(data & 0xf, 16));
+        }
+        catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+        catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+        
+        return builder.toString();
+    }
+    
+    
+    protected File              directory;
+    protected long              maxSize;
+    protected long              size;
+    protected int               redundantOps;
+    protected Writer            journal;
+    protected Map<String, Long> entries;
+    protected Set<String>       editing;
+    
+    /**
+     * Opens the cache stored in the directory, creating it if needed. The index is restored from
+     * the journal of a previous instance.
+     * 
+     * @param directory the directory owned by this cache. Nothing else should write to it
+     * @param maxSize   the maximum number of bytes the cache may hold
+     * 
+     * @throws IOException if the directory or the journal cannot be written to
+     */
+    public DiskCache(File directory, long maxSize) throws IOException {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Cache size must be greater than 0");
+        
+        this.directory    = directory;
+        this.maxSize      = maxSize;
+        this.size         = 0;
+        this.redundantOps = 0;
+        this.entries      = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        this.editing      = new HashSet<String>();
+        
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create cache directory " + directory);
+        
+        this.readJournal();
+        this.rebuildJournal();
+    }
+    
+    public synchronized long getSize() {
+        return this.size;
+    }
+    
+    public synchronized long getMaxSize() {
+        return this.maxSize;
+    }
+    
+    public synchronized DiskCache setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        this.trimToSize();
+        
+        return this;
+    }
+    
+    public synchronized int getCount() {
+        return this.entries.size();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Entry Access
+     ***********************************************************************************************
+     */
+    /**
+     * Opens the entry for reading. The streams of the snapshot remain readable even if the entry is
+     * evicted or replaced while they are open.
+     * 
+     * @param key
+     * 
+     * @return the snapshot of the entry or null if there is no such entry
+     */
+    public synchronized Snapshot get(String key) {
+        InputStream metadata,
+                    body;
+        
+        // get() instead of containsKey() so the entry is moved to the end of the access order
+        if (this.entries.get(key) == null)
+            return null;
+        
+        try {
+            metadata = new FileInputStream(this.getMetadataFile(key));
+        }
+        catch (FileNotFoundException exception) {
+            this.remove(key);
+            return null;
+        }
+        
+        try {
+            body = new FileInputStream(this.getBodyFile(key));
+        }
+        catch (FileNotFoundException exception) {
+            DiskCache.closeQuietly(metadata);
+            this.remove(key);
+            return null;
+        }
+        
+        this.appendJournal(DiskCache.READ, key);
+        
+        return new Snapshot(metadata, body, this.getBodyFile(key).length());
+    }
+    
+    /**
+     * Starts writing the entry. Nothing is visible to readers until the editor is committed.
+     * 
+     * @param key
+     * 
+     * @return the editor, or null if the entry is already being written
+     */
+    public synchronized Editor edit(String key) {
+        if (this.editing.contains(key))
+            return null;
+        
+        this.editing.add(key);
+        
+        return new Editor(key);
+    }
+    
+    public synchronized boolean remove(String key) {
+        Long entrySize = this.entries.remove(key);
+        
+        if (entrySize == null)
+            return false;
+        
+        this.getMetadataFile(key).delete();
+        this.getBodyFile(key).delete();
+        
+        this.size -= entrySize;
+        this.appendJournal(DiskCache.REMOVE, key);
+        
+        return true;
+    }
+    
+    /**
+     * Removes every entry in the cache
+     */
+    public synchronized void clear() {
+        for (String key : this.entries.keySet().toArray(new String[0]))
+            this.remove(key);
+    }
+    
+    public synchronized void close() {
+        DiskCache.closeQuietly(this.journal);
+        this.journal = null;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Internal Methods
+     ***********************************************************************************************
+     */
+    protected synchronized void completeEdit(Editor editor, boolean success) {
+        String key = editor.key;
+        File   metadata,
+               metadataTemp,
+               body,
+               bodyTemp;
+        Long   previousSize;
+        long   entrySize;
+        
+        this.editing.remove(key);
+        
+        metadata     = this.getMetadataFile(key);
+        metadataTemp = new File(metadata.getPath() + ".tmp");
+        body         = this.getBodyFile(key);
+        bodyTemp     = new File(body.getPath() + ".tmp");
+        
+        if (!success || !metadataTemp.exists()) {
+            metadataTemp.delete();
+            bodyTemp.delete();
+            return;
+        }
+        
+        // An edit which doesn't write the body keeps the body that is already there
+        if (!bodyTemp.exists() && !body.exists()) {
+            metadataTemp.delete();
+            return;
+        }
+        
+        metadataTemp.renameTo(metadata);
+        
+        if (bodyTemp.exists())
+            bodyTemp.renameTo(body);
+        
+        previousSize = this.entries.get(key);
+        entrySize    = metadata.length() + body.length();
+        
+        this.entries.put(key, entrySize);
+        this.size += entrySize - (previousSize == null ? 0 : previousSize);
+        this.appendJournal(DiskCache.CLEAN, key + " " + entrySize);
+        
+        this.trimToSize();
+    }
+    
+    protected void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            String                  key   = entry.getKey();
+            
+            if (this.editing.contains(key))
+                continue;
+            
+            iterator.remove();
+            this.getMetadataFile(key).delete();
+            this.getBodyFile(key).delete();
+            
+            this.size -= entry.getValue();
+            this.appendJournal(DiskCache.REMOVE, key);
+        }
+    }
+    
+    protected File getMetadataFile(String key) {
+        return new File(this.directory, key + ".0");
+    }
+    
+    protected File getBodyFile(String key) {
+        return new File(this.directory, key + ".1");
+    }
+    
+    protected void readJournal() {
+        File           file = new File(this.directory, DiskCache.JOURNAL_FILE);
+        BufferedReader reader;
+        String         line;
+        
+        if (!file.exists())
+            return;
+        
+        reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            
+            if (!DiskCache.JOURNAL_MAGIC.equals(reader.readLine()) ||
+                !DiskCache.JOURNAL_VERSION.equals(reader.readLine()))
+                return;
+            
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                
+                if (parts.length >= 3 && parts[0].equals(DiskCache.CLEAN))
+                    this.entries.put(parts[1], Long.parseLong(parts[2]));
+                else if (parts.length >= 2 && parts[0].equals(DiskCache.REMOVE))
+                    this.entries.remove(parts[1]);
+                else if (parts.length >= 2 && parts[0].equals(DiskCache.READ))
+                    this.entries.get(parts[1]);
+            }
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to read the cache journal", exception);
+        }
+        catch (NumberFormatException exception) {
+            Log.w(Constants.LOG_TAG, "Corrupt cache journal", exception);
+        }
+        finally {
+            DiskCache.closeQuietly(reader);
+        }
+        
+        // Drop entries whose files went missing
+        for (String key : this.entries.keySet().toArray(new String[0]))
+            if (this.getMetadataFile(key).exists() && this.getBodyFile(key).exists())
+                this.size += this.entries.get(key);
+            else
+                this.entries.remove(key);
+    }
+    
+    /**
+     * Writes a journal that only has the current entries in it, in access order
+     */
+    protected void rebuildJournal() throws IOException {
+        File   file = new File(this.directory, DiskCache.JOURNAL_FILE),
+               temp = new File(this.directory, DiskCache.JOURNAL_FILE_TEMP);
+        Writer writer;
+        
+        DiskCache.closeQuietly(this.journal);
+        
+        writer = new BufferedWriter(new FileWriter(temp));
+        try {
+            writer.write(DiskCache.JOURNAL_MAGIC + "\n");
+            writer.write(DiskCache.JOURNAL_VERSION + "\n");
+            
+            for (Map.Entry<String, Long> entry : this.entries.entrySet())
+                writer.write(String.format(
+                    "%s %s %d\n",
+                    DiskCache.CLEAN,
+                    entry.getKey(),
+                    entry.getValue()
+                ));
+        }
+        finally {
+            writer.close();
+        }
+        
+        if (!temp.renameTo(file))
+            throw new IOException("Unable to replace the cache journal");
+        
+        this.journal      = new BufferedWriter(new FileWriter(file, true));
+        this.redundantOps = 0;
+    }
+    
+    protected void appendJournal(String operation, String argument) {
+        if (this.journal == null)
+            return;
+        
+        try {
+            this.journal.write(operation + " " + argument + "\n");
+            this.journal.flush();
+            
+            if (++this.redundantOps >= DiskCache.REDUNDANT_OP_LIMIT &&
+                this.redundantOps >= this.entries.size())
+                this.rebuildJournal();
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to write the cache journal", exception);
+        }
+    }
+    
+    protected static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        
+        try {
+            closeable.close();
+        }
+        catch (IOException exception) {}
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Snapshot
+     ***********************************************************************************************
+     */
+    /**
+     * The contents of an entry at the time it was read
+     */
+    public static class Snapshot implements Closeable {
+        protected InputStream metadata;
+        protected InputStream body;
+        protected long        bodyLength;
+        
+        protected Snapshot(InputStream metadata, InputStream body, long bodyLength) {
+            this.metadata   = metadata;
+            this.body       = body;
+            this.bodyLength = bodyLength;
+        }
+        
+        public InputStream getMetadata() {
+            return this.metadata;
+        }
+        
+        public InputStream getBody() {
+            return this.body;
+        }
+        
+        public long getBodyLength() {
+            return this.bodyLength;
+        }
+        
+        public void close() {
+            DiskCache.closeQuietly(this.metadata);
+            DiskCache.closeQuietly(this.body);
+        }
+    }
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Editor
+     ***********************************************************************************************
+     */
+    /**
+     * Writes an entry. Exactly one of commit() or abort() must be called once done. The body may be
+     * left unwritten to only replace the metadata of an existing entry.
+     */
+    public class Editor {
+        protected String  key;
+        protected boolean done;
+        
+        protected Editor(String key) {
+            this.key  = key;
+            this.done = false;
+        }
+        
+        public OutputStream newMetadataStream() throws IOException {
+            return new FileOutputStream(
+                new File(DiskCache.this.getMetadataFile(this.key).getPath() + ".tmp")
+            );
+        }
+        
+        public OutputStream newBodyStream() throws IOException {
+            return new FileOutputStream(
+                new File(DiskCache.this.getBodyFile(this.key).getPath() + ".tmp")
+            );
+        }
+        
+        public void commit() {
+            if (this.done)
+                return;
+            
+            this.done = true;
+            DiskCache.this.completeEdit(this, true);
+        }
+        
+        public void abort() {
+            if (this.done)
+                return;
+            
+            this.done = true;
+            DiskCache.this.completeEdit(this, false);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.aeroheart.owlery.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import com.aeroheart.owlery.model.Model;
+
+/**
+ * Keeps parsed models in memory so that a repeated request can be completed without touching the
+ * network or the parser. The cache is bounded by the number of models it holds and every entry
+ * expires after a fixed time to live.
+ * 
+ * @author aeroheart.c6
+ */
+public class ModelCache {
+    protected LruCache<String, Entry> entries;
+    protected long                    timeToLive;
+    protected int                     hitCount;
+    protected int                     missCount;
+    protected int                     expiredCount;
+    
+    /**
+     * @param maxSize    the maximum number of models kept in the cache. See sizeOf()
+     * @param timeToLive the number of milliseconds an entry may be served for
+     */
+    public ModelCache(int maxSize, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.entries    = new LruCache<String, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.size;
+            }
+        };
+    }
+    
+    /**
+     * Builds the key of the models parsed from a request's response
+     * 
+     * @param requestKey the key identifying the request. See Request.getCacheKey()
+     * @param scope      separates the models cached for different users, such as a hash of their
+     *                   credentials. May be empty
+     * @param modelClass the class of the models
+     * @param multiple   whether the response was parsed as multiple models
+     * 
+     * @return the key, starting with the request key. See removeRequest()
+     */
+    public static String toKey(
+        String requestKey, String scope,
+        Class<? extends Model> modelClass, boolean multiple
+    ) {
+        return requestKey + "/" + scope + "/" + (multiple ? "*" : "") + modelClass.getName();
+    }
+    
+    /**
+     * @param key
+     * 
+     * @return the models stored under the key or null if there are none or they expired
+     */
+    public Entry get(String key) {
+        Entry entry = this.entries.get(key);
+        
+        synchronized (this) {
+            if (entry == null) {
+                this.missCount++;
+                return null;
+            }
+            
+            if (entry.isExpired(SystemClock.elapsedRealtime())) {
+                this.entries.remove(key);
+                this.missCount++;
+                this.expiredCount++;
+                
+                return null;
+            }
+            
+            this.hitCount++;
+        }
+        
+        return entry;
+    }
+    
+    /**
+     * Stores the models under the key. The models are shared with every response served from the
+     * cache so they should be treated as read-only.
+     * 
+     * @param key
+     * @param model
+     * @param models
+     */
+    public void put(String key, Model model, List<Model> models) {
+        Entry entry = new Entry(
+            model,
+            models,
+            SystemClock.elapsedRealtime() + this.timeToLive
+        );
+        
+        entry.size = Math.max(1, this.sizeOf(entry));
+        this.entries.put(key, entry);
+    }
+    
+    public void remove(String key) {
+        this.entries.remove(key);
+    }
+    
+    /**
+     * Removes the models of a request whatever their scope, model class or mode, e.g. once the
+     * resource it points to was modified
+     * 
+     * @param requestKey the key identifying the request. See Request.getCacheKey()
+     */
+    public void removeRequest(String requestKey) {
+        String prefix = requestKey + "/";
+        
+        for (String key : this.entries.snapshot().keySet()) {
+            if (key.startsWith(prefix))
+                this.entries.remove(key);
+        }
+    }
+    
+    public void clear() {
+        this.entries.evictAll();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Statistics
+     ***********************************************************************************************
+     */
+    public synchronized int getHitCount() {
+        return this.hitCount;
+    }
+    
+    /**
+     * @return the number of lookups which found nothing, including those which found an expired
+     *         entry
+     */
+    public synchronized int getMissCount() {
+        return this.missCount;
+    }
+    
+    /**
+     * @return the number of entries dropped to make room for new ones
+     */
+    public int getEvictionCount() {
+        return this.entries.evictionCount();
+    }
+    
+    public synchronized int getExpiredCount() {
+        return this.expiredCount;
+    }
+    
+    public int getSize() {
+        return this.entries.size();
+    }
+    
+    public int getMaxSize() {
+        return this.entries.maxSize();
+    }
+    
+    /**
+     * Computes the size of an entry. By default every model counts as 1. Subclasses can override
+     * this to weigh models by their memory footprint instead.
+     * 
+     * @param entry
+     * 
+     * @return the size of the entry
+     */
+    protected int sizeOf(Entry entry) {
+        return entry.models == null ? 1 : entry.models.size();
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Entry
+     ***********************************************************************************************
+     */
+    public static class Entry {
+        protected Model       model;
+        protected List<Model> models;
+        protected long        expiresAt;
+        protected int         size;
+        
+        protected Entry(Model model, List<Model> models, long expiresAt) {
+            this.model     = model;
+            this.models    = models == null ? null : Collections.unmodifiableList(models);
+            this.expiresAt = expiresAt;
+            this.size      = 1;
+        }
+        
+        public Model getModel() {
+            return this.model;
+        }
+        
+        public List<Model> getModels() {
+            return this.models;
+        }
+        
+        protected boolean isExpired(long now) {
+            return now >= this.expiresAt;
+        }
+    }
+}
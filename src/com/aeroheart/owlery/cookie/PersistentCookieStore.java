@@ -0,0 +1,498 @@
+package com.aeroheart.owlery.cookie;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.aeroheart.owlery.Constants;
+import com.aeroheart.owlery.util.UrlHelper;
+
+/**
+ * A cookie store which survives process restarts. Cookies are indexed by the registrable domain of
+ * the host they apply to, so looking up the cookies of a url only goes through those of its site.
+ * 
+ * The file is read the first time the store is used rather than when it is created. Changes are
+ * written behind: the first change schedules a write of the whole store FLUSH_DELAY milliseconds
+ * later and any change made in the meantime is written along with it.
+ * 
+ * @author aeroheart.c6
+ */
+public class PersistentCookieStore implements CookieStore {
+    protected static final String FILE_MAGIC   = "owlery.CookieStore";
+    protected static final String FILE_VERSION = "1";
+    
+    /**
+     * Milliseconds between the first unsaved change and the write to disk
+     */
+    public static final long FLUSH_DELAY = 2000;
+    
+    protected static ScheduledExecutorService flushExecutor;
+    
+    protected static synchronized ScheduledExecutorService getFlushExecutor() {
+        if (PersistentCookieStore.flushExecutor == null)
+            PersistentCookieStore.flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Owlery Cookie Writer");
+                        
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+            );
+        
+        return PersistentCookieStore.flushExecutor;
+    }
+    
+    
+    protected File                     file;
+    protected boolean                  loaded;
+    protected boolean                  flushScheduled;
+    protected Map<String, List<Entry>> domains;
+    protected Runnable                 flushTask;
+    
+    /**
+     * @param file the file the cookies are kept in. Nothing else should write to it
+     */
+    public PersistentCookieStore(File file) {
+        this.file    = file;
+        this.loaded  = false;
+        this.domains = new HashMap<String, List<Entry>>();
+        
+        this.flushTask = new Runnable() {
+            public void run() {
+                PersistentCookieStore.this.flush();
+            }
+        };
+    }
+    
+    public synchronized void add(URI uri, HttpCookie cookie) {
+        Entry       entry;
+        List<Entry> entries;
+        
+        if (cookie == null)
+            throw new NullPointerException("cookie is null");
+        
+        // A cookie without a domain can only be matched against the host that set it
+        if (cookie.getDomain() == null && (uri == null || uri.getHost() == null))
+            return;
+        
+        this.load();
+        
+        entry   = new Entry(cookie, uri == null ? null : uri.getHost(), System.currentTimeMillis());
+        entries = this.domains.get(entry.site);
+        
+        if (entries == null) {
+            entries = new ArrayList<Entry>(4);
+            this.domains.put(entry.site, entries);
+        }
+        
+        PersistentCookieStore.removeCookie(entries, cookie);
+        
+        // A max age of 0 is how servers delete cookies
+        if (cookie.getMaxAge() != 0)
+            entries.add(entry);
+        
+        this.scheduleFlush();
+    }
+    
+    public synchronized List<HttpCookie> get(URI uri) {
+        List<HttpCookie> cookies = new ArrayList<HttpCookie>();
+        String           host;
+        List<Entry>      entries;
+        Entry            entry;
+        long             now;
+        
+        if (uri == null)
+            throw new NullPointerException("uri is null");
+        
+        host = uri.getHost();
+        if (host == null)
+            return cookies;
+        
+        this.load();
+        
+        entries = this.domains.get(PersistentCookieStore.getSite(host));
+        if (entries == null)
+            return cookies;
+        
+        now = System.currentTimeMillis();
+        
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+            entry = iterator.next();
+            
+            if (entry.hasExpired(now)) {
+                iterator.remove();
+                this.scheduleFlush();
+            }
+            else if (entry.matches(host)) {
+                cookies.add(entry.cookie);
+            }
+        }
+        
+        return cookies;
+    }
+    
+    public synchronized List<HttpCookie> getCookies() {
+        List<HttpCookie> cookies = new ArrayList<HttpCookie>();
+        long             now     = System.currentTimeMillis();
+        
+        this.load();
+        
+        for (List<Entry> entries : this.domains.values())
+            for (Entry entry : entries)
+                if (!entry.hasExpired(now))
+                    cookies.add(entry.cookie);
+        
+        return cookies;
+    }
+    
+    public synchronized List<URI> getURIs() {
+        List<URI> uris = new ArrayList<URI>();
+        
+        this.load();
+        
+        for (List<Entry> entries : this.domains.values()) {
+            for (Entry entry : entries) {
+                try {
+                    uris.add(new URI("http", entry.domain, null, null));
+                }
+                catch (URISyntaxException exception) {
+                    // Not a valid host; nothing to report
+                }
+            }
+        }
+        
+        return uris;
+    }
+    
+    public synchronized boolean remove(URI uri, HttpCookie cookie) {
+        List<Entry> entries;
+        String      domain;
+        
+        if (cookie == null)
+            throw new NullPointerException("cookie is null");
+        
+        this.load();
+        
+        domain  = cookie.getDomain() != null ? cookie.getDomain() :
+                  uri != null ? uri.getHost() : null;
+        entries = domain == null ? null : this.domains.get(PersistentCookieStore.getSite(domain));
+        
+        if (entries == null || !PersistentCookieStore.removeCookie(entries, cookie))
+            return false;
+        
+        this.scheduleFlush();
+        return true;
+    }
+    
+    public synchronized boolean removeAll() {
+        boolean removed;
+        
+        this.load();
+        
+        removed = !this.domains.isEmpty();
+        this.domains.clear();
+        this.scheduleFlush();
+        
+        return removed;
+    }
+    
+    /**
+     * Writes the cookies to disk right away. Call this when the process may be about to end, e.g.
+     * when the application goes into the background.
+     */
+    public synchronized void flush() {
+        File   temp   = new File(this.file.getPath() + ".tmp");
+        Writer writer = null;
+        long   now    = System.currentTimeMillis();
+        
+        this.flushScheduled = false;
+        
+        if (!this.loaded)
+            return;
+        
+        try {
+            writer = new BufferedWriter(new FileWriter(temp));
+            writer.write(PersistentCookieStore.FILE_MAGIC + "\n");
+            writer.write(PersistentCookieStore.FILE_VERSION + "\n");
+            
+            for (List<Entry> entries : this.domains.values())
+                for (Entry entry : entries)
+                    if (!entry.hasExpired(now))
+                        writer.write(entry.toLine());
+            
+            writer.close();
+            writer = null;
+            
+            if (!temp.renameTo(this.file))
+                throw new IOException("Unable to replace the cookie file");
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to write the cookie file", exception);
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (IOException exception) {}
+            }
+        }
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Approximates the registrable domain of a host with its last two labels. IP addresses are
+     * kept whole. This only decides which bucket a cookie is kept in; domain matching is done on
+     * the full domain.
+     * 
+     * @param host
+     * 
+     * @return the key of the host's bucket
+     */
+    protected static String getSite(String host) {
+        int idx;
+        
+        host = host.toLowerCase(Locale.US);
+        
+        if (host.startsWith("."))
+            host = host.substring(1);
+        
+        if (host.indexOf(':') >= 0 || Character.isDigit(host.charAt(host.length() - 1)))
+            return host;
+        
+        idx = host.lastIndexOf('.');
+        if (idx <= 0)
+            return host;
+        
+        idx = host.lastIndexOf('.', idx - 1);
+        
+        return idx < 0 ? host : host.substring(idx + 1);
+    }
+    
+    protected static boolean removeCookie(List<Entry> entries, HttpCookie cookie) {
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+            if (iterator.next().cookie.equals(cookie)) {
+                iterator.remove();
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    protected void scheduleFlush() {
+        if (this.flushScheduled)
+            return;
+        
+        this.flushScheduled = true;
+        PersistentCookieStore.getFlushExecutor().schedule(
+            this.flushTask,
+            PersistentCookieStore.FLUSH_DELAY,
+            TimeUnit.MILLISECONDS
+        );
+    }
+    
+    /**
+     * Reads the cookie file the first time the store is used. A missing or unreadable file leaves
+     * the store empty.
+     */
+    protected void load() {
+        BufferedReader reader = null;
+        String         line;
+        Entry          entry;
+        List<Entry>    entries;
+        long           now    = System.currentTimeMillis();
+        
+        if (this.loaded)
+            return;
+        
+        this.loaded = true;
+        
+        if (!this.file.exists())
+            return;
+        
+        try {
+            reader = new BufferedReader(new FileReader(this.file));
+            
+            if (!PersistentCookieStore.FILE_MAGIC.equals(reader.readLine()) ||
+                !PersistentCookieStore.FILE_VERSION.equals(reader.readLine()))
+                return;
+            
+            while ((line = reader.readLine()) != null) {
+                entry = Entry.fromLine(line, now);
+                
+                if (entry == null)
+                    continue;
+                
+                entries = this.domains.get(entry.site);
+                
+                if (entries == null) {
+                    entries = new ArrayList<Entry>(4);
+                    this.domains.put(entry.site, entries);
+                }
+                
+                entries.add(entry);
+            }
+        }
+        catch (IOException exception) {
+            Log.w(Constants.LOG_TAG, "Unable to read the cookie file", exception);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException exception) {}
+            }
+        }
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Entry
+     ***********************************************************************************************
+     */
+    /**
+     * A cookie along with what's needed to match and expire it once it has been read back from
+     * disk, since HttpCookie only knows its age relative to when it was created.
+     */
+    protected static class Entry {
+        protected HttpCookie cookie;
+        protected String     domain;
+        protected String     site;
+        
+        /**
+         * True for cookies without a Domain attribute, which only apply to the host that set them
+         */
+        protected boolean    hostOnly;
+        
+        /**
+         * When the cookie expires in milliseconds since the epoch, or -1 if it has no expiry date
+         */
+        protected long       expiresAt;
+        
+        protected Entry(HttpCookie cookie, String host, long now) {
+            this.cookie    = cookie;
+            this.hostOnly  = cookie.getDomain() == null;
+            this.domain    = (this.hostOnly ? host : cookie.getDomain()).toLowerCase(Locale.US);
+            this.expiresAt = cookie.getMaxAge() < 0 ? -1 : now + cookie.getMaxAge() * 1000;
+            
+            if (this.domain.startsWith("."))
+                this.domain = this.domain.substring(1);
+            
+            this.site = PersistentCookieStore.getSite(this.domain);
+        }
+        
+        protected boolean hasExpired(long now) {
+            return this.expiresAt >= 0 && now >= this.expiresAt;
+        }
+        
+        protected boolean matches(String host) {
+            int length = host.length() - this.domain.length();
+            
+            if (length == 0)
+                return host.equalsIgnoreCase(this.domain);
+            
+            return !this.hostOnly && length > 0 && host.charAt(length - 1) == '.' &&
+                   host.regionMatches(true, length, this.domain, 0, this.domain.length());
+        }
+        
+        /**
+         * @return the entry as a line of tab separated, percent-encoded fields
+         */
+        protected String toLine() {
+            StringBuilder builder = new StringBuilder(128);
+            String        value   = this.cookie.getValue(),
+                          path    = this.cookie.getPath();
+            
+            UrlHelper.percentEncode(this.cookie.getName(), builder);
+            builder.append('\t');
+            UrlHelper.percentEncode(value == null ? "" : value, builder);
+            builder.append('\t')
+                   .append(this.domain).append('\t')
+                   .append(this.hostOnly ? '1' : '0').append('\t');
+            UrlHelper.percentEncode(path == null ? "" : path, builder);
+            builder.append('\t')
+                   .append(this.expiresAt).append('\t')
+                   .append(this.cookie.getSecure() ? '1' : '0').append('\t')
+                   .append(this.cookie.getVersion()).append('\n');
+            
+            return builder.toString();
+        }
+        
+        /**
+         * @param line
+         * @param now
+         * 
+         * @return the entry written as the line, or null if the line is malformed or the cookie
+         *         has expired since
+         */
+        protected static Entry fromLine(String line, long now) {
+            String[]   fields = line.split("\t", -1);
+            HttpCookie cookie;
+            Entry      entry;
+            long       expiresAt;
+            
+            if (fields.length < 8)
+                return null;
+            
+            try {
+                expiresAt = Long.parseLong(fields[5]);
+                
+                if (expiresAt >= 0 && now >= expiresAt)
+                    return null;
+                
+                cookie = new HttpCookie(
+                    UrlHelper.percentDecode(fields[0]),
+                    UrlHelper.percentDecode(fields[1])
+                );
+                
+                if (fields[3].equals("0"))
+                    cookie.setDomain(fields[2]);
+                
+                if (fields[4].length() > 0)
+                    cookie.setPath(UrlHelper.percentDecode(fields[4]));
+                
+                cookie.setMaxAge(expiresAt < 0 ? -1 : Math.max(1, (expiresAt - now) / 1000));
+                cookie.setSecure(fields[6].equals("1"));
+                cookie.setVersion(Integer.parseInt(fields[7]));
+            }
+            catch (IllegalArgumentException exception) {
+                // Covers malformed numbers, escapes and cookie names
+                return null;
+            }
+            
+            entry           = new Entry(cookie, fields[2], now);
+            entry.expiresAt = expiresAt;
+            
+            return entry;
+        }
+    }
+}
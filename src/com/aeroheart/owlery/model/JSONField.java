@@ -0,0 +1,26 @@
+package com.aeroheart.owlery.model;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model field as bound to a JSON property. Models with annotated fields are read straight
+ * from the JSON stream by their ModelBinder instead of going through fromJSON(JSONObject).
+ * 
+ * Supported field types are String, the primitive types and their wrappers, other models with
+ * annotated fields and Lists of any of these.
+ * 
+ * @author aeroheart.c6
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface JSONField {
+    /**
+     * @return the name of the JSON property
+     */
+    public String value();
+}
@@ -0,0 +1,216 @@
+package com.aeroheart.owlery.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+/**
+ * Reads and writes the values of JSONField fields. Shared by ReflectiveModelBinder and the binders
+ * generated by the annotation processor so both convert values the same way. Values that don't
+ * fit the type of their field fail with an IOException rather than a runtime exception so they
+ * end up as a failed parse instead of escaping the thread the response is processed in.
+ * 
+ * @author aeroheart.c6
+ */
+public class JSONValues {
+    protected JSONValues() {}
+    
+    public static String readString(JsonReader reader) throws IOException {
+        return reader.peek() == JsonToken.BOOLEAN ?
+               String.valueOf(reader.nextBoolean()) :
+               reader.nextString();
+    }
+    
+    public static boolean readBoolean(JsonReader reader) throws IOException {
+        return reader.peek() == JsonToken.STRING ?
+               Boolean.parseBoolean(reader.nextString()) :
+               reader.nextBoolean();
+    }
+    
+    public static int readInt(JsonReader reader) throws IOException {
+        try {
+            return reader.nextInt();
+        }
+        catch (NumberFormatException exception) {
+            throw JSONValues.malformed(reader, exception);
+        }
+    }
+    
+    public static long readLong(JsonReader reader) throws IOException {
+        try {
+            return reader.nextLong();
+        }
+        catch (NumberFormatException exception) {
+            throw JSONValues.malformed(reader, exception);
+        }
+    }
+    
+    public static double readDouble(JsonReader reader) throws IOException {
+        try {
+            return reader.nextDouble();
+        }
+        catch (NumberFormatException exception) {
+            throw JSONValues.malformed(reader, exception);
+        }
+    }
+    
+    public static float readFloat(JsonReader reader) throws IOException {
+        return (float)JSONValues.readDouble(reader);
+    }
+    
+    /**
+     * Reads the next object of the reader as a model of the given class through its binder
+     * 
+     * @param reader
+     * @param type
+     * 
+     * @return the model
+     * 
+     * @throws IOException if the class has no binder or can't be created
+     */
+    public static <T extends Model> T readModel(JsonReader reader, Class<T> type)
+        throws IOException {
+        ModelBinder<T> binder;
+        T              model;
+        
+        try {
+            binder = ModelBinders.get(type);
+            
+            if (binder == null)
+                throw new IOException(type.getName() + " has no JSONField fields");
+            
+            model = ModelFactories.get(type).create();
+        }
+        catch (IllegalArgumentException exception) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+        catch (IllegalStateException exception) {
+            throw new IOException(exception.getMessage(), exception.getCause());
+        }
+        
+        return binder.read(reader, model);
+    }
+    
+    /**
+     * @param reader
+     * @param elementType String, a primitive wrapper or a model class
+     * 
+     * @return the next array of the reader. Null elements are kept
+     * 
+     * @throws IOException
+     */
+    public static <E> List<E> readList(JsonReader reader, Class<E> elementType)
+        throws IOException {
+        List<E> values = new ArrayList<E>();
+        
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                values.add(null);
+            }
+            else {
+                values.add(elementType.cast(JSONValues.readValue(reader, elementType, null)));
+            }
+        }
+        reader.endArray();
+        
+        return values;
+    }
+    
+    /**
+     * @param reader
+     * @param type        the type of the field
+     * @param elementType the type of the elements if the field is a List
+     * 
+     * @return the next value of the reader converted to the type. Primitives are boxed
+     * 
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public static Object readValue(JsonReader reader, Class<?> type, Class<?> elementType)
+        throws IOException {
+        if (type == String.class)
+            return JSONValues.readString(reader);
+        
+        if (type == boolean.class || type == Boolean.class)
+            return JSONValues.readBoolean(reader);
+        
+        if (type == int.class || type == Integer.class)
+            return JSONValues.readInt(reader);
+        
+        if (type == long.class || type == Long.class)
+            return JSONValues.readLong(reader);
+        
+        if (type == double.class || type == Double.class)
+            return JSONValues.readDouble(reader);
+        
+        if (type == float.class || type == Float.class)
+            return JSONValues.readFloat(reader);
+        
+        if (type == List.class)
+            return JSONValues.readList(reader, elementType);
+        
+        return JSONValues.readModel(reader, (Class<Model>)type);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        }
+        else if (value instanceof String) {
+            writer.value((String)value);
+        }
+        else if (value instanceof Boolean) {
+            writer.value((Boolean)value);
+        }
+        else if (value instanceof Number) {
+            writer.value((Number)value);
+        }
+        else if (value instanceof List) {
+            writer.beginArray();
+            for (Object element : (List<Object>)value)
+                JSONValues.writeValue(writer, element);
+            writer.endArray();
+        }
+        else {
+            JSONValues.writeModel(writer, (Model)value);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static void writeModel(JsonWriter writer, Model model) throws IOException {
+        ModelBinder<Model> binder;
+        
+        if (model == null) {
+            writer.nullValue();
+            return;
+        }
+        
+        try {
+            binder = (ModelBinder<Model>)ModelBinders.get(model.getClass());
+        }
+        catch (IllegalArgumentException exception) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+        
+        if (binder == null)
+            throw new IOException(model.getClass().getName() + " has no JSONField fields");
+        
+        binder.write(writer, model);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static IOException malformed(JsonReader reader, NumberFormatException exception) {
+        return new IOException("Malformed number in " + reader, exception);
+    }
+}
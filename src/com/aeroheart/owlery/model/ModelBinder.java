@@ -0,0 +1,28 @@
+package com.aeroheart.owlery.model;
+
+import java.io.IOException;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+/**
+ * Reads and writes a model class directly from and to a JSON stream. See ModelBinders for how the
+ * binder of a class is found.
+ * 
+ * @author aeroheart.c6
+ */
+public interface ModelBinder<T extends Model> {
+    /**
+     * Reads the next JSON object of the reader into the model
+     * 
+     * @param reader
+     * @param model
+     * 
+     * @return the model
+     * 
+     * @throws IOException
+     */
+    public T read(JsonReader reader, T model) throws IOException;
+    
+    public void write(JsonWriter writer, T model) throws IOException;
+}
@@ -0,0 +1,132 @@
+package com.aeroheart.owlery.model;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.util.JsonWriter;
+
+/**
+ * Registry of the binders of model classes. The binder of a class is resolved once, in this order:
+ * a binder registered with register(), a generated class named after the model with a
+ * "$$JSONBinder" suffix, and finally a ReflectiveModelBinder if the class has JSONField fields.
+ * The generated classes are written by JSONBinderProcessor when it is on the processor path of
+ * javac; see custom_rules.xml.
+ * 
+ * @author aeroheart.c6
+ */
+public class ModelBinders {
+    public static final String GENERATED_SUFFIX = "$$JSONBinder";
+    
+    protected static final ConcurrentMap<Class<? extends Model>, ModelBinder<? extends Model>>
+        binders = new ConcurrentHashMap<Class<? extends Model>, ModelBinder<? extends Model>>();
+    
+    /**
+     * Classes known to have no binder, so they are not resolved again
+     */
+    protected static final Set<Class<? extends Model>> unbound = Collections.newSetFromMap(
+        new ConcurrentHashMap<Class<? extends Model>, Boolean>()
+    );
+    
+    protected ModelBinders() {}
+    
+    public static <T extends Model> void register(Class<T> modelClass, ModelBinder<T> binder) {
+        ModelBinders.binders.put(modelClass, binder);
+        ModelBinders.unbound.remove(modelClass);
+    }
+    
+    /**
+     * @param modelClass
+     * 
+     * @return the binder of the class or null if it has none, in which case the class is parsed
+     *         through fromJSON(JSONObject)
+     * 
+     * @throws IllegalArgumentException if a JSONField field has an unsupported type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Model> ModelBinder<T> get(Class<T> modelClass) {
+        ModelBinder<? extends Model> binder = ModelBinders.binders.get(modelClass),
+                                     existing;
+        
+        if (binder != null || ModelBinders.unbound.contains(modelClass))
+            return (ModelBinder<T>)binder;
+        
+        binder = ModelBinders.resolve(modelClass);
+        
+        if (binder == null) {
+            ModelBinders.unbound.add(modelClass);
+            return null;
+        }
+        
+        existing = ModelBinders.binders.putIfAbsent(modelClass, binder);
+        
+        return (ModelBinder<T>)(existing == null ? binder : existing);
+    }
+    
+    /**
+     * Writes the model as a JSON string using its binder
+     * 
+     * @param model
+     * 
+     * @return the JSON string
+     * 
+     * @throws IllegalArgumentException if the model's class has no binder
+     */
+    @SuppressWarnings("unchecked")
+    public static String toJSONString(Model model) {
+        ModelBinder<Model> binder = (ModelBinder<Model>)ModelBinders.get(model.getClass());
+        StringWriter       output = new StringWriter();
+        JsonWriter         writer = new JsonWriter(output);
+        
+        if (binder == null)
+            throw new IllegalArgumentException(model.getClass().getName() + " has no binder");
+        
+        try {
+            binder.write(writer, model);
+            writer.close();
+        }
+        catch (IOException exception) {
+            // Writing to a String never fails
+        }
+        
+        return output.toString();
+    }
+    
+    /**
+     * @param modelClass
+     * 
+     * @return the generated or reflective binder of the class, or null if it has no JSONField
+     *         fields
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T extends Model> ModelBinder<T> resolve(Class<T> modelClass) {
+        ReflectiveModelBinder<T> binder;
+        
+        try {
+            Class<?> generated = Class.forName(
+                modelClass.getName() + ModelBinders.GENERATED_SUFFIX,
+                true,
+                modelClass.getClassLoader()
+            );
+            
+            if (ModelBinder.class.isAssignableFrom(generated))
+                return (ModelBinder<T>)generated.newInstance();
+        }
+        catch (ClassNotFoundException exception) {
+            // No generated binder; fall back to reflection
+        }
+        catch (InstantiationException exception) {
+            throw new IllegalArgumentException("Cannot create binder of " + modelClass, exception);
+        }
+        catch (IllegalAccessException exception) {
+            throw new IllegalArgumentException("Cannot create binder of " + modelClass, exception);
+        }
+        
+        binder = new ReflectiveModelBinder<T>(modelClass);
+        
+        return binder.isEmpty() ? null : binder;
+    }
+}
@@ -0,0 +1,122 @@
+package com.aeroheart.owlery.model;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the factories used to create models. Model classes without a registered factory are
+ * created through their no-argument constructor, which is looked up once and then kept along with
+ * the registered factories.
+ * 
+ * @author aeroheart.c6
+ */
+public class ModelFactories {
+    protected static final ConcurrentMap<Class<? extends Model>, ModelFactory<? extends Model>>
+        factories = new ConcurrentHashMap<Class<? extends Model>, ModelFactory<? extends Model>>();
+    
+    static {
+        ModelFactories.register(OAuthKey.class, new ModelFactory<OAuthKey>() {
+            public OAuthKey create() {
+                return new OAuthKey();
+            }
+        });
+    }
+    
+    protected ModelFactories() {}
+    
+    /**
+     * Registers the factory of a model class, replacing the one in use
+     * 
+     * @param modelClass
+     * @param factory
+     */
+    public static <T extends Model> void register(
+        Class<T> modelClass,
+        ModelFactory<? extends T> factory
+    ) {
+        ModelFactories.factories.put(modelClass, factory);
+    }
+    
+    /**
+     * Gets the factory of a model class. If none was registered, one that calls the class'
+     * no-argument constructor is created and registered.
+     * 
+     * @param modelClass
+     * 
+     * @return the factory
+     * 
+     * @throws IllegalArgumentException if no factory was registered and the class has no
+     *                                  no-argument constructor
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Model> ModelFactory<? extends T> get(Class<T> modelClass) {
+        ModelFactory<? extends Model> factory = ModelFactories.factories.get(modelClass);
+        
+        if (factory == null) {
+            factory = new ConstructorFactory<T>(modelClass);
+            
+            ModelFactory<? extends Model> existing =
+                ModelFactories.factories.putIfAbsent(modelClass, factory);
+            
+            if (existing != null)
+                factory = existing;
+        }
+        
+        return (ModelFactory<? extends T>)factory;
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: ConstructorFactory
+     ***********************************************************************************************
+     */
+    /**
+     * Creates models through a constructor resolved once
+     */
+    protected static class ConstructorFactory<T extends Model> implements ModelFactory<T> {
+        protected Constructor<T> constructor;
+        
+        protected ConstructorFactory(Class<T> modelClass) {
+            try {
+                this.constructor = modelClass.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            }
+            catch (NoSuchMethodException exception) {
+                throw new IllegalArgumentException(
+                    modelClass.getName() + " has no no-argument constructor",
+                    exception
+                );
+            }
+        }
+        
+        /**
+         * @throws IllegalStateException if the constructor fails. The cause is what it threw
+         */
+        public T create() {
+            try {
+                return this.constructor.newInstance();
+            }
+            catch (InvocationTargetException exception) {
+                throw new IllegalStateException(
+                    "Error on creating " + this.constructor.getName(),
+                    exception.getCause()
+                );
+            }
+            catch (InstantiationException exception) {
+                throw new IllegalStateException(
+                    "Error on creating " + this.constructor.getName(),
+                    exception
+                );
+            }
+            catch (IllegalAccessException exception) {
+                throw new IllegalStateException(
+                    "Error on creating " + this.constructor.getName(),
+                    exception
+                );
+            }
+        }
+    }
+}
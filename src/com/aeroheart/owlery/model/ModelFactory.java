@@ -0,0 +1,11 @@
+package com.aeroheart.owlery.model;
+
+/**
+ * Creates empty models for parsers to fill in. Registering a factory with ModelFactories lets a
+ * model be created with a plain constructor call instead of reflection.
+ * 
+ * @author aeroheart.c6
+ */
+public interface ModelFactory<T extends Model> {
+    public T create();
+}
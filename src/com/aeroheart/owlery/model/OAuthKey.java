@@ -4,9 +4,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 public class OAuthKey implements Model {
+    @JSONField("oauth_token")
     protected String token;
+    
+    @JSONField("oauth_token_secret")
     protected String secret;
+    
+    @JSONField("oauth_verifier")
     protected String verifier;
+    
+    @JSONField("oauth_callback_confirmed")
     protected boolean callbackConfirmed;
     
     public OAuthKey() {
@@ -0,0 +1,158 @@
+package com.aeroheart.owlery.model;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+/**
+ * Binds the JSONField fields of a model class. The fields and their types are looked up once when
+ * the binder is created; reading and writing only go through the cached Field handles.
+ * 
+ * @author aeroheart.c6
+ */
+public class ReflectiveModelBinder<T extends Model> implements ModelBinder<T> {
+    protected Map<String, Property> properties;
+    
+    /**
+     * @param modelClass
+     * 
+     * @throws IllegalArgumentException if a JSONField field has an unsupported type
+     */
+    public ReflectiveModelBinder(Class<T> modelClass) {
+        this.properties = new LinkedHashMap<String, Property>();
+        
+        for (Class<?> type = modelClass; type != null && type != Object.class;
+             type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                JSONField annotation = field.getAnnotation(JSONField.class);
+                
+                if (annotation == null || Modifier.isStatic(field.getModifiers()))
+                    continue;
+                
+                // Fields of subclasses win over those of the same name in superclasses
+                if (this.properties.containsKey(annotation.value()))
+                    continue;
+                
+                field.setAccessible(true);
+                this.properties.put(annotation.value(), new Property(field));
+            }
+        }
+    }
+    
+    public boolean isEmpty() {
+        return this.properties.isEmpty();
+    }
+    
+    public T read(JsonReader reader, T model) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Property property = this.properties.get(reader.nextName());
+            
+            if (property == null) {
+                reader.skipValue();
+                continue;
+            }
+            
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                
+                if (!property.type.isPrimitive())
+                    property.set(model, null);
+                
+                continue;
+            }
+            
+            property.set(
+                model,
+                JSONValues.readValue(reader, property.type, property.elementType)
+            );
+        }
+        reader.endObject();
+        
+        return model;
+    }
+    
+    public void write(JsonWriter writer, T model) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, Property> entry : this.properties.entrySet()) {
+            writer.name(entry.getKey());
+            JSONValues.writeValue(writer, entry.getValue().get(model));
+        }
+        writer.endObject();
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static boolean isSupported(Class<?> type) {
+        return type == String.class ||
+               type.isPrimitive() && type != char.class && type != byte.class &&
+                                     type != short.class && type != void.class ||
+               type == Boolean.class || type == Integer.class || type == Long.class ||
+               type == Double.class || type == Float.class ||
+               Model.class.isAssignableFrom(type);
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Property
+     ***********************************************************************************************
+     */
+    protected static class Property {
+        protected Field    field;
+        protected Class<?> type;
+        protected Class<?> elementType;
+        
+        protected Property(Field field) {
+            this.field = field;
+            this.type  = field.getType();
+            
+            if (this.type == List.class) {
+                Type generic = field.getGenericType();
+                
+                if (generic instanceof ParameterizedType &&
+                    ((ParameterizedType)generic).getActualTypeArguments()[0] instanceof Class)
+                    this.elementType = (Class<?>)
+                        ((ParameterizedType)generic).getActualTypeArguments()[0];
+                
+                if (this.elementType == null || this.elementType == List.class ||
+                    !ReflectiveModelBinder.isSupported(this.elementType) ||
+                    this.elementType.isPrimitive())
+                    throw new IllegalArgumentException("Unsupported list type of " + field);
+            }
+            else if (!ReflectiveModelBinder.isSupported(this.type)) {
+                throw new IllegalArgumentException("Unsupported type of " + field);
+            }
+        }
+        
+        protected Object get(Object model) {
+            try {
+                return this.field.get(model);
+            }
+            catch (IllegalAccessException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+        
+        protected void set(Object model, Object value) {
+            try {
+                this.field.set(model, value);
+            }
+            catch (IllegalAccessException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+    }
+}
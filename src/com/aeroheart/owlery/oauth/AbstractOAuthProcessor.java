@@ -1,65 +1,72 @@
 package com.aeroheart.owlery.oauth;
 
+import java.security.GeneralSecurityException;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
-import android.util.Base64;
-import android.util.Log;
-
-import com.aeroheart.owlery.Constants;
-
 public abstract class AbstractOAuthProcessor implements OAuthProcessor {
-    protected String  consumerKey;
-    protected String  consumerSecret;
+    /**
+     * Maximum number of initialized Mac instances kept by each thread
+     */
+    protected static final int MAX_CACHED_MACS = 8;
     
-    protected long    timestamp;
+    protected String         consumerKey;
+    protected String         consumerSecret;
+    protected NonceGenerator nonceGenerator;
+    
+    /**
+     * Initialized Mac instances keyed by their key. Provider lookup and key initialization cost far
+     * more than the hash itself, so every thread keeps the Macs it used. Macs are not thread-safe
+     * which is why they are not shared between threads; doFinal() resets them for the next use.
+     */
+    protected ThreadLocal<Map<String, Mac>> macs = new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new LinkedHashMap<String, Mac>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Mac> eldest) {
+                    return this.size() > AbstractOAuthProcessor.MAX_CACHED_MACS;
+                }
+            };
+        }
+    };
 
     // Default constructor is hidden. The price of not requiring a setRequest method for subclasses
-    protected AbstractOAuthProcessor() {}
+    protected AbstractOAuthProcessor() {
+        this.nonceGenerator = new SecureRandomNonceGenerator();
+    }
     public    AbstractOAuthProcessor(String consumerKey, String consumerSecret) {
         this.consumerKey    = consumerKey;
         this.consumerSecret = consumerSecret;
-        this.timestamp      = 0;
+        this.nonceGenerator = new SecureRandomNonceGenerator();
     }
     
     public String getNonce() {
-        String nonce;
-        try {
-            Mac  mac = Mac.getInstance(this.getSignatureAlgorithm());
-            long timestamp;
-            
-            if (this.timestamp <= 0)
-                timestamp = this.getTimestamp();
-            else
-                timestamp = this.timestamp;
-
-            mac.init(new SecretKeySpec(
-                this.consumerKey.getBytes(),
-                mac.getAlgorithm())
-            );
-
-            nonce = Base64.encodeToString(
-                mac.doFinal(String.valueOf(timestamp).getBytes()),
-                Base64.DEFAULT | Base64.NO_WRAP
-            );
-        } catch (Exception exception) {
-            Log.e(Constants.LOG_TAG, exception.getMessage(), exception);
-            nonce = "";
-        }
-
-        return nonce;
+        return this.nonceGenerator.nextNonce();
+    }
+    
+    public NonceGenerator getNonceGenerator() {
+        return this.nonceGenerator;
+    }
+    
+    /**
+     * Replaces the nonce generator, e.g. with one that returns known nonces in tests. Passing null
+     * restores the default SecureRandomNonceGenerator.
+     */
+    public void setNonceGenerator(NonceGenerator generator) {
+        this.nonceGenerator = generator == null ? new SecureRandomNonceGenerator() : generator;
     }
     
     /**
-     * Generates a timestamp since January 1, 1970 00:00:00 GMT+0. Note that this method has a
-     * side-effect of assigning the generated value to the timestamp field
+     * Generates a timestamp since January 1, 1970 00:00:00 GMT+0
      */
     public long getTimestamp() {
-        this.timestamp = Calendar.getInstance(TimeZone.getTimeZone("GMT")).getTimeInMillis() / 1000;
-        return this.timestamp;
+        return Calendar.getInstance(TimeZone.getTimeZone("GMT")).getTimeInMillis() / 1000;
     }
     
     public String getSignatureAlgorithm() {
@@ -69,4 +76,28 @@ public abstract class AbstractOAuthProcessor implements OAuthProcessor {
     public String getSignatureMethod() {
         return "HMAC-SHA1";
     }
+    
+    /**
+     * Gets this thread's Mac for the key, initializing one on first use. The Mac must be used
+     * up to doFinal() by the calling thread only.
+     * 
+     * @param key
+     * 
+     * @return the initialized Mac
+     * 
+     * @throws GeneralSecurityException if the algorithm is not available or the key is invalid
+     */
+    protected Mac getMac(String key) throws GeneralSecurityException {
+        Map<String, Mac> macs = this.macs.get();
+        Mac              mac  = macs.get(key);
+        
+        if (mac == null) {
+            mac = Mac.getInstance(this.getSignatureAlgorithm());
+            mac.init(new SecretKeySpec(key.getBytes(), mac.getAlgorithm()));
+            
+            macs.put(key, mac);
+        }
+        
+        return mac;
+    }
 }
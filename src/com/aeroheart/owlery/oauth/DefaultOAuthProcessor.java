@@ -1,14 +1,25 @@
 package com.aeroheart.owlery.oauth;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 import android.net.Uri;
 import android.util.Base64;
@@ -23,6 +34,50 @@ import com.aeroheart.owlery.util.UrlHelper;
  * @author aeroheart-c6
  */
 public class DefaultOAuthProcessor extends AbstractOAuthProcessor {
+    /**
+     * Minimum number of requests a thread is given by signAll(). Smaller batches are not worth
+     * handing to another thread.
+     */
+    protected static final int MIN_REQUESTS_PER_THREAD = 4;
+    
+    protected static ExecutorService signingExecutor;
+    
+    /**
+     * @return the pool signAll() runs on. It has one thread less than there are cores since the
+     *         calling thread signs its share of the requests as well
+     */
+    protected static synchronized ExecutorService getSigningExecutor() {
+        ThreadPoolExecutor executor;
+        int                threads;
+        
+        if (DefaultOAuthProcessor.signingExecutor != null)
+            return DefaultOAuthProcessor.signingExecutor;
+        
+        threads  = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                protected AtomicInteger count = new AtomicInteger(1);
+                
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    
+                    thread.setName("Owlery Signer #" + this.count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        
+        DefaultOAuthProcessor.signingExecutor = executor;
+        return executor;
+    }
+    
+    
     public String verifier;
     
     public DefaultOAuthProcessor(String consumerKey, String consumerSecret) {
@@ -31,73 +86,105 @@ public class DefaultOAuthProcessor extends AbstractOAuthProcessor {
         verifier = null;
     }
     
-    public void sign(Request request, String token, String secret) {
-        if (request == null)
-            return;
+    public SigningContext sign(Request request, String token, String secret) {
+        return this.sign(request, this.prepare(token, secret));
+    }
+    
+    public List<SigningContext> signAll(Collection<Request> requests, String token, String secret) {
+        return this.signAll(requests, token, secret, DefaultOAuthProcessor.getSigningExecutor());
+    }
+    
+    /**
+     * Signs the requests in parallel using the given executor. The state shared by the requests
+     * (signing key and OAuth parameters) is computed once for the whole batch. A request that
+     * appears more than once in the batch is signed once and its context is repeated.
+     * 
+     * @param requests
+     * @param token
+     * @param secret
+     * @param executor
+     * 
+     * @return the signing contexts in the order of the requests. Requests left unsigned because the
+     *         calling thread was interrupted or signing failed have null contexts
+     */
+    public List<SigningContext> signAll(
+        Collection<Request> requests, String token, String secret,
+        ExecutorService executor
+    ) {
+        Map<Request, Integer>       indexes  = new IdentityHashMap<Request, Integer>();
+        final Request[]             batch;
+        final SigningContext[]      contexts;
+        final SigningState          state    = this.prepare(token, secret);
+        final AtomicBoolean         stopped  = new AtomicBoolean();
+        final CountDownLatch        finished;
+        List<Future<?>>             futures  = new ArrayList<Future<?>>();
+        List<SigningContext>        results  = new ArrayList<SigningContext>(requests.size());
+        int                         threads,
+                                    size;
         
-        List<String> params     = new ArrayList<String>();
-        String       pairFormat = "%s=\"%s\"";
-        String       header     = "";
+        // Signing the same request on two threads would mix up its Authorization header
+        for (Request request : requests)
+            if (!indexes.containsKey(request))
+                indexes.put(request, indexes.size());
         
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_CONSUMER_KEY,
-            this.consumerKey
-        ));
+        batch    = new Request[indexes.size()];
+        contexts = new SigningContext[batch.length];
         
-        if (token != null && !token.isEmpty())
-            params.add(String.format(
-                pairFormat,
-                OAuthProcessor.NAME_TOKEN,
-                token
-            ));
-        
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_SIGNATURE_METHOD,
-            this.getSignatureMethod()
-        ));
-        
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_SIGNATURE,
-            this.getSignature(request, token, secret)
-        ));
-        
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_TIMESTAMP,
-            this.getTimestamp()
-        ));
-        
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_NONCE,
-            this.getNonce()
-        ));
-        
-        params.add(String.format(
-            pairFormat,
-            OAuthProcessor.NAME_VERSION,
-            this.getOAuthVersion()
-        ));
+        for (Map.Entry<Request, Integer> entry : indexes.entrySet())
+            batch[entry.getValue()] = entry.getKey();
         
-        if (this.verifier != null && !this.verifier.isEmpty())
-            params.add(String.format(
-                pairFormat,
-                OAuthProcessor.NAME_VERIFIER,
-                this.verifier
-            ));
-        
-        for (String param : params) {
-            header += param;
+        threads = Math.min(
+            Runtime.getRuntime().availableProcessors(),
+            batch.length / DefaultOAuthProcessor.MIN_REQUESTS_PER_THREAD
+        );
+        threads  = Math.max(1, threads);
+        size     = (batch.length + threads - 1) / threads;
+        finished = new CountDownLatch(threads - 1);
+        
+        for (int i = 1; i < threads; i++) {
+            final int from = i * size,
+                      to   = Math.min(batch.length, from + size);
+            
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        DefaultOAuthProcessor.this.signRange(
+                            batch, contexts, state, stopped, from, to
+                        );
+                    }
+                    catch (RuntimeException exception) {
+                        Log.e(Constants.LOG_TAG, "Error on signing requests", exception);
+                    }
+                    finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
+        
+        // The calling thread takes the first share instead of just waiting
+        this.signRange(batch, contexts, state, stopped, 0, Math.min(batch.length, size));
+        
+        try {
+            finished.await();
+        }
+        catch (InterruptedException exception) {
+            // The requests belong to the caller again once this returns, so no worker may still
+            // be signing them by then
+            stopped.set(true);
             
-            if (params.indexOf(param) < params.size() - 1)
-                header += ", ";
+            for (Future<?> future : futures)
+                if (future.cancel(false))
+                    finished.countDown();
+            
+            DefaultOAuthProcessor.awaitUninterruptibly(finished);
+            Thread.currentThread().interrupt();
         }
-        header = "OAuth " + header;
         
-        request.addHeader("Authorization", header);
+        for (Request request : requests)
+            results.add(contexts[indexes.get(request)]);
+        
+        return results;
     }
     
     public DefaultOAuthProcessor setVerificationCode(String code) {
@@ -109,112 +196,267 @@ public class DefaultOAuthProcessor extends AbstractOAuthProcessor {
        return "1.0";
     }
     
-    public String getSignatureBase(Request request, String token) { 
-       Map<String, List<String>> parameters = new HashMap<String, List<String>>();
-       List<String> values;
-       List<String> pairs;
-       
-       // HTTP POST and GET request params
-       parameters.putAll(request.getPostParameters());
-       parameters.putAll(request.getQueryParameters());
-       
-       // OAuth-related parameters
-       // Why can't I not loop this?
-       values = new ArrayList<String>();
-       values.add(this.consumerKey);
-       parameters.put(OAuthProcessor.NAME_CONSUMER_KEY, values);
-       
-       values = new ArrayList<String>();
-       values.add(this.getTimestamp() + "");
-       parameters.put(OAuthProcessor.NAME_TIMESTAMP, values);
-       
-       values = new ArrayList<String>();
-       values.add(this.getNonce());
-       parameters.put(OAuthProcessor.NAME_NONCE, values);
-       
-       values = new ArrayList<String>();
-       values.add(this.getSignatureMethod());
-       parameters.put(OAuthProcessor.NAME_SIGNATURE_METHOD, values);
-       
-       values = new ArrayList<String>();
-       values.add(this.getOAuthVersion());
-       parameters.put(OAuthProcessor.NAME_VERSION, values);
-       
-       if (token != null && !token.isEmpty()) {
-           values = new ArrayList<String>();
-           values.add(token);
-           parameters.put(OAuthProcessor.NAME_TOKEN, values);    
-       }
-       
-       if (this.verifier != null && !this.verifier.isEmpty()) {
-           values = new ArrayList<String>();
-           values.add(this.verifier);
-           parameters.put(OAuthProcessor.NAME_VERIFIER, values); 
-       }
-       
-       
-       // Get keys sorted
-       pairs = new ArrayList<String>();
-       
-       for (String key : parameters.keySet())
-          for (String value : parameters.get(key))
-             pairs.add(String.format("%s=%s",
-                 UrlHelper.percentEncode(key),
-                 UrlHelper.percentEncode(value)
-             ));
-       
-       Collections.sort(pairs, new Comparator<String>() {
-          public int compare(String itemA, String itemB) {
-             return itemA.compareTo(itemB);
-          }
-       });
-
-       Uri    uri  = Uri.parse(request.getUrl());
-       String temp = "";
-       
-       for (String pair : pairs)
-           temp += (temp.length() > 0 ? "&" : "") + pair;
-       
-       return String.format("%s&%s&%s",
-           UrlHelper.percentEncode(request.getMethod()),
-           UrlHelper.percentEncode(uri.getScheme() + "://" + uri.getHost() + uri.getPath()),
-           UrlHelper.percentEncode(temp)
-       );
+    public String getSignatureBase(Request request, String token) {
+        long timestamp = this.getTimestamp();
+        
+        return this.getSignatureBase(request, token, timestamp, this.getNonce());
+    }
+    
+    public String getSignatureBase(Request request, String token, long timestamp, String nonce) {
+        return this.getSignatureBase(request, this.prepare(token, null), timestamp, nonce);
     }
     
     public String getSignature(Request request, String token, String secret) {
-       String signature = "",
-              base      = this.getSignatureBase(request, token);
-       
-       if (secret == null)
-           secret = "";
-       
-       // Get the hashing algorithm
-       try {
-           Mac           algorithm;
-           SecretKeySpec keySpec;
-           String        key;
-           
-           key = String.format("%s&%s",
-               UrlHelper.percentEncode(this.consumerSecret),
-               UrlHelper.percentEncode(secret)
-           );
-           
-           algorithm = Mac.getInstance(this.getSignatureAlgorithm());
-           keySpec   = new SecretKeySpec(key.getBytes(), algorithm.getAlgorithm());
-           
-           algorithm.init(keySpec);
-           
-           signature = Base64.encodeToString(
-               algorithm.doFinal(base.getBytes()),
-               Base64.DEFAULT | Base64.NO_WRAP
-           );
-           signature = UrlHelper.percentEncode(signature);
-       }
-       catch(Exception exception) {
-           Log.e(Constants.LOG_TAG, exception.getMessage(), exception);
-       }
-       
-       return signature;
+        long timestamp = this.getTimestamp();
+        
+        return this.getSignature(request, token, secret, timestamp, this.getNonce());
+    }
+    
+    public String getSignature(
+        Request request, String token, String secret,
+        long timestamp, String nonce
+    ) {
+        return this.getSignature(request, this.prepare(token, secret), timestamp, nonce);
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Signing Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Computes everything about a signature that doesn't depend on the request being signed
+     * 
+     * @param token
+     * @param secret the token secret
+     * 
+     * @return the state to sign requests with
+     */
+    protected SigningState prepare(String token, String secret) {
+        SigningState  state   = new SigningState();
+        StringBuilder builder = new StringBuilder();
+        
+        // Signing key
+        UrlHelper.percentEncode(this.consumerSecret, builder).append('&');
+        
+        if (secret != null)
+            UrlHelper.percentEncode(secret, builder);
+        
+        state.signingKey = builder.toString();
+        
+        // Signature base parameters, except the timestamp and nonce which differ per request
+        state.names.add(OAuthProcessor.NAME_TIMESTAMP);
+        state.names.add(OAuthProcessor.NAME_NONCE);
+        
+        this.addPair(state, OAuthProcessor.NAME_CONSUMER_KEY, this.consumerKey);
+        this.addPair(state, OAuthProcessor.NAME_SIGNATURE_METHOD, this.getSignatureMethod());
+        this.addPair(state, OAuthProcessor.NAME_VERSION, this.getOAuthVersion());
+        
+        if (token != null && !token.isEmpty())
+            this.addPair(state, OAuthProcessor.NAME_TOKEN, token);
+        
+        if (this.verifier != null && !this.verifier.isEmpty())
+            this.addPair(state, OAuthProcessor.NAME_VERIFIER, this.verifier);
+        
+        // Header parameters before and after the signature, timestamp and nonce
+        builder.setLength(0);
+        this.appendParam(builder, OAuthProcessor.NAME_CONSUMER_KEY, this.consumerKey);
+        
+        if (token != null && !token.isEmpty())
+            this.appendParam(builder, OAuthProcessor.NAME_TOKEN, token);
+        
+        this.appendParam(builder, OAuthProcessor.NAME_SIGNATURE_METHOD, this.getSignatureMethod());
+        state.headerPrefix = "OAuth " + builder.substring(2);
+        
+        builder.setLength(0);
+        this.appendParam(builder, OAuthProcessor.NAME_VERSION, this.getOAuthVersion());
+        
+        if (this.verifier != null && !this.verifier.isEmpty())
+            this.appendParam(builder, OAuthProcessor.NAME_VERIFIER, this.verifier);
+        
+        state.headerSuffix = builder.toString();
+        
+        return state;
+    }
+    
+    protected SigningContext sign(Request request, SigningState state) {
+        if (request == null)
+            return null;
+        
+        long           start     = System.nanoTime(),
+                       timestamp = this.getTimestamp();
+        String         nonce     = this.getNonce(),
+                       signature = this.getSignature(request, state, timestamp, nonce);
+        StringBuilder  header    = new StringBuilder(state.headerPrefix.length() + 160);
+        SigningContext context;
+        
+        header.append(state.headerPrefix);
+        
+        // The signature is percent-encoded already
+        header.append(", ").append(OAuthProcessor.NAME_SIGNATURE)
+              .append("=\"").append(signature).append('"');
+        
+        this.appendParam(header, OAuthProcessor.NAME_TIMESTAMP, String.valueOf(timestamp));
+        this.appendParam(header, OAuthProcessor.NAME_NONCE, nonce);
+        header.append(state.headerSuffix);
+        
+        request.addHeader("Authorization", header.toString());
+        context = new SigningContext(
+            timestamp,
+            nonce,
+            signature,
+            header.toString(),
+            System.nanoTime() - start
+        );
+        
+        return context;
+    }
+    
+    protected void signRange(
+        Request[] requests, SigningContext[] contexts,
+        SigningState state, AtomicBoolean stopped,
+        int from, int to
+    ) {
+        for (int i = from; i < to && !stopped.get(); i++)
+            contexts[i] = this.sign(requests[i], state);
+    }
+    
+    /**
+     * Waits for the latch to reach zero, ignoring interrupts. The caller is responsible for
+     * restoring the interrupted status of the thread.
+     * 
+     * @param latch
+     */
+    protected static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            }
+            catch (InterruptedException exception) {
+                continue;
+            }
+        }
+    }
+    
+    protected String getSignatureBase(
+        Request request, SigningState state,
+        long timestamp, String nonce
+    ) {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        List<String>              pairs      = new ArrayList<String>(state.pairs);
+        StringBuilder             builder    = new StringBuilder(512);
+        Uri                       uri        = Uri.parse(request.getUrl());
+        
+        // HTTP POST and GET request params. Only form-encoded bodies are signed, so the parts of a
+        // multipart body are left out (RFC 5849 3.4.1.3)
+        if (!request.isMultipart())
+            parameters.putAll(request.getPostParameters());
+        
+        parameters.putAll(request.getQueryParameters());
+        
+        // OAuth-related parameters take the place of request params of the same name
+        for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+            if (state.names.contains(parameter.getKey()))
+                continue;
+            
+            for (String value : parameter.getValue()) {
+                UrlHelper.percentEncode(parameter.getKey(), builder).append('=');
+                UrlHelper.percentEncode(value, builder);
+                
+                pairs.add(builder.toString());
+                builder.setLength(0);
+            }
+        }
+        
+        pairs.add(OAuthProcessor.NAME_TIMESTAMP + "=" + timestamp);
+        pairs.add(UrlHelper.percentEncode(nonce, builder.append(OAuthProcessor.NAME_NONCE + "="))
+                           .toString());
+        builder.setLength(0);
+        
+        Collections.sort(pairs);
+        
+        // The pairs are encoded once more as a whole, which is the same as encoding each of them
+        // and joining them with an encoded "&"
+        UrlHelper.percentEncode(request.getMethod(), builder).append('&');
+        UrlHelper.percentEncode(
+            uri.getScheme() + "://" + uri.getHost() + uri.getPath(),
+            builder
+        ).append('&');
+        
+        for (int i = 0; i < pairs.size(); i++) {
+            if (i > 0)
+                builder.append("%26");
+            
+            UrlHelper.percentEncode(pairs.get(i), builder);
+        }
+        
+        return builder.toString();
+    }
+    
+    protected String getSignature(
+        Request request, SigningState state,
+        long timestamp, String nonce
+    ) {
+        String signature = "",
+               base      = this.getSignatureBase(request, state, timestamp, nonce);
+        
+        try {
+            Mac mac = this.getMac(state.signingKey);
+            
+            signature = Base64.encodeToString(
+                mac.doFinal(base.getBytes()),
+                Base64.DEFAULT | Base64.NO_WRAP
+            );
+            signature = UrlHelper.percentEncode(signature);
+        }
+        catch(Exception exception) {
+            Log.e(Constants.LOG_TAG, exception.getMessage(), exception);
+        }
+        
+        return signature;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected void addPair(SigningState state, String name, String value) {
+        StringBuilder builder = new StringBuilder();
+        
+        UrlHelper.percentEncode(name, builder).append('=');
+        UrlHelper.percentEncode(value, builder);
+        
+        state.names.add(name);
+        state.pairs.add(builder.toString());
+    }
+    
+    protected void appendParam(StringBuilder header, String name, String value) {
+        header.append(", ").append(name).append("=\"");
+        UrlHelper.percentEncode(value, header).append('"');
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: SigningState
+     ***********************************************************************************************
+     */
+    /**
+     * The parts of a signature shared by every request signed with the same token. Never modified
+     * once prepared so that it can be used by several threads.
+     */
+    protected static class SigningState {
+        protected String       signingKey;
+        protected List<String> pairs;
+        protected Set<String>  names;
+        protected String       headerPrefix;
+        protected String       headerSuffix;
+        
+        protected SigningState() {
+            this.pairs = new ArrayList<String>();
+            this.names = new HashSet<String>();
+        }
     }
 }
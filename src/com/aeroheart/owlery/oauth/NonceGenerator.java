@@ -0,0 +1,15 @@
+package com.aeroheart.owlery.oauth;
+
+/**
+ * Produces the nonces OAuth requests are signed with. Implementations are called from several
+ * threads at once and must return a different value on every call.
+ * 
+ * @author aeroheart.c6
+ */
+public interface NonceGenerator {
+    /**
+     * @return a new nonce. The value is used in the signature base and the Authorization header as
+     *         is, so it should only contain unreserved characters to avoid encoding it
+     */
+    public String nextNonce();
+}
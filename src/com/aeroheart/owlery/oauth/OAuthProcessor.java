@@ -1,5 +1,8 @@
 package com.aeroheart.owlery.oauth;
 
+import java.util.Collection;
+import java.util.List;
+
 import com.aeroheart.owlery.Request;
 
 public interface OAuthProcessor {
@@ -16,6 +19,9 @@ public interface OAuthProcessor {
     public String getOAuthVersion();
     public String getNonce();
     
+    public NonceGenerator getNonceGenerator();
+    public void setNonceGenerator(NonceGenerator generator);
+    
     /**
      * @return the current timestamp in seconds
      */
@@ -35,9 +41,30 @@ public interface OAuthProcessor {
     public String getSignature(Request request, String token, String secret);
     public String getSignatureBase(Request request, String token);
     
+    /**
+     * Computes the signature using the given timestamp and nonce instead of generating new ones
+     */
+    public String getSignature(
+        Request request, String token, String secret,
+        long timestamp, String nonce
+    );
+    public String getSignatureBase(Request request, String token, long timestamp, String nonce);
+    
     /**
      * Signs the request. Subclasses will handle how the request is signed (e.g. whether the
-     * resulting signature is put in a request header or in the query string)
+     * resulting signature is put in a request header or in the query string). Implementations
+     * must not keep per-request state in the processor so that one instance can sign requests
+     * from several threads at once.
+     * 
+     * @return the timestamp, nonce and signature the request was signed with
+     */
+    public SigningContext sign(Request request, String token, String secret);
+    
+    /**
+     * Signs several requests made with the same token at once. Implementations may sign the
+     * requests in parallel.
+     * 
+     * @return the signing contexts, in the order of the requests
      */
-    public void sign(Request request, String token, String secret);
+    public List<SigningContext> signAll(Collection<Request> requests, String token, String secret);
 }
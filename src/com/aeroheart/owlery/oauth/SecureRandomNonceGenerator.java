@@ -0,0 +1,103 @@
+package com.aeroheart.owlery.oauth;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates nonces out of random bytes encoded in the URL-safe Base64 alphabet without padding, so
+ * they never need percent-encoding. Every thread has its own SecureRandom and reads from a buffer
+ * filled in bulk, which keeps contention and per-nonce allocations down to the resulting String.
+ * 
+ * @author aeroheart.c6
+ */
+public class SecureRandomNonceGenerator implements NonceGenerator {
+    public static final int DEFAULT_NONCE_BYTES = 16;
+    
+    protected static final char[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    
+    /**
+     * Number of random bytes fetched from SecureRandom at a time
+     */
+    protected static final int BUFFER_SIZE = 512;
+    
+    protected int                nonceBytes;
+    protected ThreadLocal<State> states;
+    
+    public SecureRandomNonceGenerator() {
+        this(SecureRandomNonceGenerator.DEFAULT_NONCE_BYTES);
+    }
+    
+    /**
+     * @param nonceBytes the number of random bytes in every nonce. Multiples of 3 make the best use
+     *                   of the nonce's length
+     */
+    public SecureRandomNonceGenerator(int nonceBytes) {
+        this.nonceBytes = Math.min(SecureRandomNonceGenerator.BUFFER_SIZE, Math.max(1, nonceBytes));
+        this.states     = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State(SecureRandomNonceGenerator.this.nonceBytes);
+            }
+        };
+    }
+    
+    public String nextNonce() {
+        State  state  = this.states.get();
+        byte[] buffer = state.buffer;
+        char[] output = state.output;
+        int    end,
+               length = 0;
+        
+        if (state.position + this.nonceBytes > buffer.length) {
+            state.random.nextBytes(buffer);
+            state.position = 0;
+        }
+        
+        end = state.position + this.nonceBytes;
+        
+        // Every 3 bytes become 4 characters; a trailing group of 1 or 2 bytes becomes 2 or 3
+        for (int i = state.position; i < end; i += 3) {
+            int remaining = end - i,
+                bits      = (buffer[i] & 0xFF) << 16;
+            
+            if (remaining > 1)
+                bits |= (buffer[i + 1] & 0xFF) << 8;
+            
+            if (remaining > 2)
+                bits |= buffer[i + 2] & 0xFF;
+            
+            output[length++] = SecureRandomNonceGenerator.ALPHABET[bits >> 18 & 0x3F];
+            output[length++] = SecureRandomNonceGenerator.ALPHABET[bits >> 12 & 0x3F];
+            
+            if (remaining > 1)
+                output[length++] = SecureRandomNonceGenerator.ALPHABET[bits >> 6 & 0x3F];
+            
+            if (remaining > 2)
+                output[length++] = SecureRandomNonceGenerator.ALPHABET[bits & 0x3F];
+        }
+        
+        state.position = end;
+        
+        return new String(output, 0, length);
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: State
+     ***********************************************************************************************
+     */
+    protected static class State {
+        protected SecureRandom random;
+        protected byte[]       buffer;
+        protected char[]       output;
+        protected int          position;
+        
+        protected State(int nonceBytes) {
+            this.random   = new SecureRandom();
+            this.buffer   = new byte[SecureRandomNonceGenerator.BUFFER_SIZE];
+            this.output   = new char[(nonceBytes + 2) / 3 * 4];
+            this.position = this.buffer.length;
+        }
+    }
+}
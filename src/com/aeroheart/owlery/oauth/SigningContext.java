@@ -0,0 +1,67 @@
+package com.aeroheart.owlery.oauth;
+
+/**
+ * The values produced by signing a single request. The header is built from the same timestamp
+ * and nonce the signature was computed with. Instances are immutable so they can be handed between
+ * threads freely.
+ * 
+ * @author aeroheart.c6
+ */
+public class SigningContext {
+    protected final long   timestamp;
+    protected final String nonce;
+    protected final String signature;
+    protected final String header;
+    protected final long   signingTime;
+    
+    /**
+     * @param timestamp
+     * @param nonce
+     * @param signature
+     * @param header
+     * @param signingTime the number of nanoseconds it took to sign the request
+     */
+    public SigningContext(
+        long timestamp, String nonce,
+        String signature, String header,
+        long signingTime
+    ) {
+        this.timestamp   = timestamp;
+        this.nonce       = nonce;
+        this.signature   = signature;
+        this.header      = header;
+        this.signingTime = signingTime;
+    }
+    
+    /**
+     * @return the timestamp, in seconds, the request was signed with
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+    
+    public String getNonce() {
+        return this.nonce;
+    }
+    
+    /**
+     * @return the signature, already percent-encoded
+     */
+    public String getSignature() {
+        return this.signature;
+    }
+    
+    /**
+     * @return the value of the Authorization header
+     */
+    public String getHeader() {
+        return this.header;
+    }
+    
+    /**
+     * @return the number of nanoseconds it took to sign the request
+     */
+    public long getSigningTime() {
+        return this.signingTime;
+    }
+}
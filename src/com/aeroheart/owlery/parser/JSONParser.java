@@ -1,51 +1,244 @@
 package com.aeroheart.owlery.parser;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import com.aeroheart.owlery.Response;
 import com.aeroheart.owlery.model.Model;
+import com.aeroheart.owlery.model.ModelBinder;
+import com.aeroheart.owlery.model.ModelBinders;
+import com.aeroheart.owlery.model.ModelFactories;
+import com.aeroheart.owlery.model.ModelFactory;
 
-public class JSONParser implements Response.Parser {
-    protected Class<? extends Model> modelClass;
+/**
+ * Parses JSON response bodies into models. The body is read token by token so that only the
+ * object of the model currently being built is held in memory. When parsing multiple models, the
+ * elements of the top-level array are turned into models one at a time as they are read.
+ * 
+ * Models with a binder (see ModelBinders) are read straight into their fields. Other models are
+ * given each object as a JSONObject through fromJSON().
+ * 
+ * @author aeroheart.c6
+ */
+public class JSONParser implements Response.StreamParser {
+    protected Class<? extends Model>        modelClass;
+    protected ModelFactory<? extends Model> factory;
+    protected ModelBinder<Model>            binder;
+    protected boolean                       resolved;
     
     public JSONParser setModelClass(Class<? extends Model> modelClass) {
         this.modelClass = modelClass;
+        this.factory    = null;
+        this.binder     = null;
+        this.resolved   = false;
         return this;
     }
     
     public Model parseSingle(String data) {
-        JSONObject  dataJSON;
+        try {
+            return this.parseSingle(new StringReader(data));
+        }
+        catch (IOException exception) {
+            return null;
+        }
+    }
+    
+    public List<Model> parseMultiple(String data) {
+        try {
+            return this.parseMultiple(new StringReader(data));
+        }
+        catch (IOException exception) {
+            return null;
+        }
+    }
+    
+    public Model parseSingle(Reader data) throws IOException {
+        JsonReader reader = new JsonReader(data);
+        
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT)
+                return null;
+            
+            return this.readModel(reader);
+        }
+        catch (IllegalStateException exception) {
+            throw new IOException(exception.getMessage());
+        }
+        catch (IllegalArgumentException exception) {
+            // Includes NumberFormatException
+            throw new IOException(exception.getMessage(), exception);
+        }
+    }
+    
+    /**
+     * Parses a top-level array into a list of models. A top-level object is parsed as a list with a
+     * single model in it. Array elements which are not objects are skipped.
+     * 
+     * @param data
+     * 
+     * @return the list of models. This is empty (never null) if the array has no objects in it
+     * 
+     * @throws IOException
+     */
+    public List<Model> parseMultiple(Reader data) throws IOException {
+        JsonReader  reader = new JsonReader(data);
+        List<Model> models = new ArrayList<Model>();
         Model       model;
         
         try {
-            model = this.modelClass.newInstance();
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                model = this.readModel(reader);
+                
+                if (model != null)
+                    models.add(model);
+                
+                return models;
+            }
+            
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                
+                model = this.readModel(reader);
+                
+                if (model != null)
+                    models.add(model);
+            }
+            reader.endArray();
+        }
+        catch (IllegalStateException exception) {
+            throw new IOException(exception.getMessage());
         }
-        catch (InstantiationException exception) {
-            model = null;
+        catch (IllegalArgumentException exception) {
+            // Includes NumberFormatException
+            throw new IOException(exception.getMessage(), exception);
         }
-        catch (IllegalAccessException exception) {
-            model = null;
+        
+        return models;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Reads the next object of the reader as a model
+     */
+    protected Model readModel(JsonReader reader) throws IOException {
+        if (this.modelClass == null) {
+            reader.skipValue();
+            return null;
         }
         
-        if (model == null)
-            return model;
+        this.resolve();
         
+        if (this.binder != null)
+            return this.binder.read(reader, this.createModel());
+        else
+            return this.createModel().fromJSON(this.readObject(reader));
+    }
+    
+    /**
+     * Looks up the factory and binder of the model class. This is done once per model class rather
+     * than once per model.
+     */
+    @SuppressWarnings("unchecked")
+    protected void resolve() throws IOException {
+        if (this.resolved)
+            return;
+        
+        try {
+            this.factory  = ModelFactories.get(this.modelClass);
+            this.binder   = (ModelBinder<Model>)ModelBinders.get(this.modelClass);
+            this.resolved = true;
+        }
+        catch (IllegalArgumentException exception) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+    }
+    
+    protected Model createModel() throws IOException {
         try {
-            dataJSON = new JSONObject(data);
-            model.fromJSON(dataJSON);
+            return this.factory.create();
+        }
+        catch (IllegalStateException exception) {
+            throw new IOException(exception.getMessage(), exception.getCause());
         }
-        catch (JSONException exception) {
-            dataJSON = null;
-            model    = null;
+    }
+    
+    protected JSONObject readObject(JsonReader reader) throws IOException {
+        JSONObject data = new JSONObject();
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            
+            try {
+                data.put(name, this.readValue(reader));
+            }
+            catch (JSONException exception) {
+                throw new IOException(exception.getMessage());
+            }
         }
+        reader.endObject();
         
-        return model;
+        return data;
     }
     
-    public List<Model> parseMultiple(String data) {
-        return null;
+    protected JSONArray readArray(JsonReader reader) throws IOException {
+        JSONArray data = new JSONArray();
+        
+        reader.beginArray();
+        while (reader.hasNext())
+            data.put(this.readValue(reader));
+        reader.endArray();
+        
+        return data;
+    }
+    
+    protected Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return this.readObject(reader);
+            
+            case BEGIN_ARRAY:
+                return this.readArray(reader);
+            
+            case BOOLEAN:
+                return reader.nextBoolean();
+            
+            case NUMBER:
+                return this.toNumber(reader.nextString());
+            
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            
+            default:
+                return reader.nextString();
+        }
+    }
+    
+    protected Number toNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException exception) {
+            return Double.parseDouble(value);
+        }
     }
 }
@@ -0,0 +1,107 @@
+package com.aeroheart.owlery.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, thread-safe pool of equally sized byte arrays used as read buffers. Buffers are
+ * handed out from the pool when available and allocated otherwise. Released buffers are kept only
+ * while the pool has room for them so the pool never grows past its capacity.
+ * 
+ * @author aeroheart.c6
+ */
+public class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_CAPACITY    = 32;
+    
+    protected static BufferPool defaultPool;
+    
+    public static synchronized BufferPool getDefault() {
+        if (BufferPool.defaultPool == null)
+            BufferPool.defaultPool = new BufferPool(
+                BufferPool.DEFAULT_BUFFER_SIZE,
+                BufferPool.DEFAULT_CAPACITY
+            );
+        
+        return BufferPool.defaultPool;
+    }
+    
+    
+    protected int                   bufferSize;
+    protected BlockingQueue<byte[]> buffers;
+    protected AtomicInteger         allocationCount;
+    protected AtomicInteger         reuseCount;
+    
+    /**
+     * @param bufferSize the size of every buffer in the pool
+     * @param capacity   the maximum number of idle buffers kept in the pool
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize      = bufferSize;
+        this.buffers         = new ArrayBlockingQueue<byte[]>(capacity);
+        this.allocationCount = new AtomicInteger(0);
+        this.reuseCount      = new AtomicInteger(0);
+    }
+    
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+    
+    /**
+     * @return a buffer from the pool or a newly allocated one if the pool is empty
+     */
+    public byte[] acquire() {
+        byte[] buffer = this.poll();
+        
+        return buffer == null ? this.allocate() : buffer;
+    }
+    
+    /**
+     * @return a buffer from the pool or null if the pool is empty
+     */
+    public byte[] poll() {
+        byte[] buffer = this.buffers.poll();
+        
+        if (buffer != null)
+            this.reuseCount.incrementAndGet();
+        
+        return buffer;
+    }
+    
+    /**
+     * @return a newly allocated buffer that can later be released to the pool
+     */
+    public byte[] allocate() {
+        this.allocationCount.incrementAndGet();
+        
+        return new byte[this.bufferSize];
+    }
+    
+    /**
+     * Returns the buffer to the pool. The buffer must not be used after this. Buffers that are not
+     * of the pool's size are ignored.
+     * 
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != this.bufferSize)
+            return;
+        
+        this.buffers.offer(buffer);
+    }
+    
+    /**
+     * @return the number of buffers allocated because the pool was empty
+     */
+    public int getAllocationCount() {
+        return this.allocationCount.get();
+    }
+    
+    /**
+     * @return the number of buffers handed out from the pool
+     */
+    public int getReuseCount() {
+        return this.reuseCount.get();
+    }
+}
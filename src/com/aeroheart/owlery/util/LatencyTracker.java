@@ -0,0 +1,106 @@
+package com.aeroheart.owlery.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recent latencies recorded under each key, such as a host name, in fixed size
+ * ring buffers so percentiles can be computed over a sliding window.
+ * 
+ * @author aeroheart.c6
+ */
+public class LatencyTracker {
+    public static final int DEFAULT_WINDOW      = 100;
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    
+    protected int                 window;
+    protected int                 minSamples;
+    protected Map<String, Window> windows;
+    
+    public LatencyTracker() {
+        this(LatencyTracker.DEFAULT_WINDOW, LatencyTracker.DEFAULT_MIN_SAMPLES);
+    }
+    
+    /**
+     * @param window     the number of latencies kept per key
+     * @param minSamples the number of latencies a key needs before percentiles are reported
+     */
+    public LatencyTracker(int window, int minSamples) {
+        if (window < 1)
+            throw new IllegalArgumentException("The window must hold at least 1 latency");
+        
+        this.window     = window;
+        this.minSamples = Math.max(1, Math.min(window, minSamples));
+        this.windows    = new HashMap<String, Window>();
+    }
+    
+    /**
+     * @param key
+     * @param latency in milliseconds
+     */
+    public synchronized void record(String key, long latency) {
+        Window window = this.windows.get(key);
+        
+        if (window == null) {
+            window = new Window(this.window);
+            this.windows.put(key, window);
+        }
+        
+        window.add(latency);
+    }
+    
+    /**
+     * @param key
+     * @param percentile between 0 and 1
+     * 
+     * @return the latency below which the given fraction of the recent latencies fall, or -1 if
+     *         not enough latencies were recorded under the key
+     */
+    public synchronized long getPercentile(String key, double percentile) {
+        Window window = this.windows.get(key);
+        long[] sorted;
+        int    rank;
+        
+        if (window == null || window.count < this.minSamples)
+            return -1;
+        
+        sorted = Arrays.copyOf(window.latencies, window.count);
+        Arrays.sort(sorted);
+        
+        // Nearest rank
+        rank = (int)Math.ceil(percentile * sorted.length) - 1;
+        
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+    
+    public synchronized void clear() {
+        this.windows.clear();
+    }
+    
+    
+    /*
+     ***********************************************************************************************
+     * InnerClasses: Window
+     ***********************************************************************************************
+     */
+    protected static class Window {
+        protected long[] latencies;
+        protected int    count;
+        protected int    next;
+        
+        protected Window(int size) {
+            this.latencies = new long[size];
+            this.count     = 0;
+            this.next      = 0;
+        }
+        
+        protected void add(long latency) {
+            this.latencies[this.next] = latency;
+            this.next = (this.next + 1) % this.latencies.length;
+            
+            if (this.count < this.latencies.length)
+                this.count++;
+        }
+    }
+}
@@ -1,37 +1,240 @@
 package com.aeroheart.owlery.util;
 
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 
+/**
+ * RFC 3986 percent encoding. Only the unreserved characters (ALPHA, DIGIT, "-", ".", "_" and "~")
+ * are left as they are; everything else is written as the percent-encoded bytes of its UTF-8 form.
+ * This is the encoding OAuth requires for its signature base.
+ * 
+ * @author aeroheart.c6
+ */
 public class UrlHelper {
+    protected static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    
+    /**
+     * Lookup table of the ASCII characters that are written without encoding
+     */
+    protected static final boolean[] UNRESERVED = new boolean[128];
+    
+    static {
+        for (char c = 'A'; c <= 'Z'; c++)
+            UrlHelper.UNRESERVED[c] = true;
+        
+        for (char c = 'a'; c <= 'z'; c++)
+            UrlHelper.UNRESERVED[c] = true;
+        
+        for (char c = '0'; c <= '9'; c++)
+            UrlHelper.UNRESERVED[c] = true;
+        
+        UrlHelper.UNRESERVED['-'] = true;
+        UrlHelper.UNRESERVED['.'] = true;
+        UrlHelper.UNRESERVED['_'] = true;
+        UrlHelper.UNRESERVED['~'] = true;
+    }
+    
     protected UrlHelper() {}
     
+    /**
+     * @param value
+     * 
+     * @return the encoded value. The value itself is returned if nothing in it needs encoding
+     */
     public static String percentEncode(String value) {
-       try {
-          // untouched . _ * -
-          return URLEncoder.encode(value, "UTF-8")
-              .replace("%7E", "~")
-              .replace("*", "%2A")
-              .replace("+", "%20");
-       }
-       catch (UnsupportedEncodingException exception) {
-          return "";
-       }
+        int index = UrlHelper.indexOfReserved(value);
+        
+        if (index < 0)
+            return value;
+        
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        
+        builder.append(value, 0, index);
+        UrlHelper.encode(value, index, builder);
+        
+        return builder.toString();
     }
     
+    /**
+     * Encodes the value into the builder so that several values can be joined without creating
+     * intermediate strings
+     * 
+     * @param value
+     * @param builder
+     * 
+     * @return the builder
+     */
+    public static StringBuilder percentEncode(String value, StringBuilder builder) {
+        int index = UrlHelper.indexOfReserved(value);
+        
+        if (index < 0)
+            return builder.append(value);
+        
+        builder.append(value, 0, index);
+        UrlHelper.encode(value, index, builder);
+        
+        return builder;
+    }
+    
+    /**
+     * Decodes a percent-encoded value. A "+" is decoded as a space since form data still uses it
+     * for one.
+     * 
+     * @param value
+     * 
+     * @return the decoded value. The value itself is returned if there is nothing to decode
+     * 
+     * @throws IllegalArgumentException if an escape sequence is incomplete or not hexadecimal
+     */
     public static String percentDecode(String value) {
-       try {
-          return URLDecoder.decode(
-             value
-                 .replace("~", "%7E")
-                 .replace("%2A", "*")
-                 .replace("%20", "+"),
-             "UTF-8"
-          );
-       }
-       catch (UnsupportedEncodingException exception) {
-          return "";
-       }
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0)
+            return value;
+        
+        return UrlHelper.percentDecode(value, new StringBuilder(value.length())).toString();
+    }
+    
+    /**
+     * Decodes a percent-encoded value into the builder
+     * 
+     * @param value
+     * @param builder
+     * 
+     * @return the builder
+     * 
+     * @throws IllegalArgumentException if an escape sequence is incomplete or not hexadecimal
+     */
+    public static StringBuilder percentDecode(String value, StringBuilder builder) {
+        int    length = value.length();
+        byte[] bytes  = null;
+        
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            
+            if (c == '+') {
+                builder.append(' ');
+            }
+            else if (c != '%') {
+                builder.append(c);
+            }
+            else {
+                int count = 0;
+                
+                // Collect the whole run of escapes since a character may span several bytes
+                if (bytes == null)
+                    bytes = new byte[(length - i) / 3];
+                
+                while (i < length && value.charAt(i) == '%') {
+                    if (i + 2 >= length)
+                        throw new IllegalArgumentException("Incomplete escape sequence: " + value);
+                    
+                    bytes[count++] = (byte)(
+                        UrlHelper.toDigit(value, i + 1) << 4 |
+                        UrlHelper.toDigit(value, i + 2)
+                    );
+                    i += 3;
+                }
+                
+                i--;
+                UrlHelper.appendUtf8(bytes, count, builder);
+            }
+        }
+        
+        return builder;
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static int indexOfReserved(String value) {
+        int length = value.length();
+        
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            
+            if (c >= 128 || !UrlHelper.UNRESERVED[c])
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    protected static void encode(String value, int start, StringBuilder builder) {
+        int length = value.length();
+        
+        for (int i = start; i < length; i++) {
+            int c = value.charAt(i);
+            
+            if (c < 128 && UrlHelper.UNRESERVED[c]) {
+                builder.append((char)c);
+                continue;
+            }
+            
+            if (Character.isHighSurrogate((char)c) && i + 1 < length &&
+                Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char)c, value.charAt(++i));
+            }
+            
+            if (c < 0x80) {
+                UrlHelper.appendByte(c, builder);
+            }
+            else if (c < 0x800) {
+                UrlHelper.appendByte(0xC0 | c >> 6, builder);
+                UrlHelper.appendByte(0x80 | c & 0x3F, builder);
+            }
+            else if (c < 0x10000) {
+                // Unpaired surrogates can't be encoded; write the replacement character like
+                // String.getBytes() does
+                if (c >= 0xD800 && c <= 0xDFFF)
+                    c = 0xFFFD;
+                
+                UrlHelper.appendByte(0xE0 | c >> 12, builder);
+                UrlHelper.appendByte(0x80 | c >> 6 & 0x3F, builder);
+                UrlHelper.appendByte(0x80 | c & 0x3F, builder);
+            }
+            else {
+                UrlHelper.appendByte(0xF0 | c >> 18, builder);
+                UrlHelper.appendByte(0x80 | c >> 12 & 0x3F, builder);
+                UrlHelper.appendByte(0x80 | c >> 6 & 0x3F, builder);
+                UrlHelper.appendByte(0x80 | c & 0x3F, builder);
+            }
+        }
+    }
+    
+    protected static void appendByte(int data, StringBuilder builder) {
+        builder.append('%')
+               .append(UrlHelper.HEX_DIGITS[data >> 4 & 0x0F])
+               .append(UrlHelper.HEX_DIGITS[data & 0x0F]);
+    }
+    
+    protected static void appendUtf8(byte[] bytes, int count, StringBuilder builder) {
+        boolean ascii = true;
+        
+        for (int i = 0; i < count && ascii; i++)
+            ascii = bytes[i] >= 0;
+        
+        if (ascii) {
+            for (int i = 0; i < count; i++)
+                builder.append((char)bytes[i]);
+            
+            return;
+        }
+        
+        try {
+            builder.append(new String(bytes, 0, count, "UTF-8"));
+        }
+        catch (UnsupportedEncodingException exception) {
+            // UTF-8 is always supported
+        }
+    }
+    
+    protected static int toDigit(String value, int index) {
+        int digit = Character.digit(value.charAt(index), 16);
+        
+        if (digit < 0)
+            throw new IllegalArgumentException("Illegal hex characters in escape sequence: " +
+                                               value);
+        
+        return digit;
     }
 }
@@ -0,0 +1,285 @@
+package com.aeroheart.owlery.tests;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+import com.aeroheart.owlery.Request;
+import com.aeroheart.owlery.Response;
+import com.aeroheart.owlery.model.Model;
+import com.aeroheart.owlery.model.OAuthKey;
+import com.aeroheart.owlery.oauth.DefaultOAuthProcessor;
+import com.aeroheart.owlery.oauth.OAuthProcessor;
+import com.aeroheart.owlery.parser.JSONParser;
+import com.aeroheart.owlery.util.UrlHelper;
+
+/**
+ * Rough timings of the library's hot paths. Results are written to the log under the
+ * "Owlery/Benchmark" tag; the assertions only check that the compared paths agree.
+ */
+public class BenchmarkTestCase extends InstrumentationTestCase {
+    protected static final String LOG_TAG    = "Owlery/Benchmark";
+    protected static final int    ITERATIONS = 20;
+    
+    public void testParseMultiple() throws IOException, JSONException {
+        String      data = this.buildModelArray(500);
+        JSONParser  parser;
+        List<Model> models;
+        long        start,
+                    treeTime,
+                    streamTime;
+        
+        parser = new JSONParser().setModelClass(OAuthKey.class);
+        models = null;
+        
+        // Warm up both paths before timing them
+        this.parseAsTree(data);
+        parser.parseMultiple(new StringReader(data));
+        
+        start = System.nanoTime();
+        for (int i = 0; i < BenchmarkTestCase.ITERATIONS; i++)
+            models = this.parseAsTree(data);
+        treeTime = (System.nanoTime() - start) / BenchmarkTestCase.ITERATIONS;
+        
+        Assert.assertEquals(500, models.size());
+        
+        start = System.nanoTime();
+        for (int i = 0; i < BenchmarkTestCase.ITERATIONS; i++)
+            models = parser.parseMultiple(new StringReader(data));
+        streamTime = (System.nanoTime() - start) / BenchmarkTestCase.ITERATIONS;
+        
+        Assert.assertEquals(500, models.size());
+        Assert.assertEquals("token-499", ((OAuthKey)models.get(499)).getToken());
+        
+        Log.d(BenchmarkTestCase.LOG_TAG, String.format(
+            "parseMultiple(500): JSONArray %d us, JSONParser %d us",
+            treeTime / 1000,
+            streamTime / 1000
+        ));
+    }
+    
+    public void testPercentEncode() throws UnsupportedEncodingException {
+        String[] values = {
+            "oauth_consumer_key", "dpf43f3p2l4k3l03",
+            "oauth_nonce", "kllo9940pd9333jh",
+            "oauth_signature_method", "HMAC-SHA1",
+            "oauth_timestamp", "1191242096",
+            "oauth_token", "nnch734d00sl2jdk",
+            "oauth_version", "1.0",
+            "oauth_callback", "http://printer.example.com/ready?photo=vacation.jpg&size=original",
+            "status", "Hello Ladies + Gentlemen, a signed OAuth request!"
+        };
+        String   encoded = null;
+        long     start,
+                 replaceTime,
+                 tableTime;
+        int      rounds  = BenchmarkTestCase.ITERATIONS * 500;
+        
+        for (String value : values)
+            Assert.assertEquals(
+                this.percentEncodeWithReplace(value),
+                UrlHelper.percentEncode(value)
+            );
+        
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            for (String value : values)
+                encoded = this.percentEncodeWithReplace(value);
+        replaceTime = (System.nanoTime() - start) / rounds;
+        
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            for (String value : values)
+                encoded = UrlHelper.percentEncode(value);
+        tableTime = (System.nanoTime() - start) / rounds;
+        
+        Assert.assertNotNull(encoded);
+        Log.d(BenchmarkTestCase.LOG_TAG, String.format(
+            "percentEncode(%d values): URLEncoder %d ns, UrlHelper %d ns",
+            values.length,
+            replaceTime,
+            tableTime
+        ));
+    }
+    
+    public void testOAuthSignature() throws GeneralSecurityException {
+        DefaultOAuthProcessor processor;
+        Request               request;
+        long                  start,
+                              uncachedRate,
+                              cachedRate;
+        int                   rounds = BenchmarkTestCase.ITERATIONS * 50;
+        
+        processor = new DefaultOAuthProcessor("consumer-key", "consumer-secret");
+        request   = new Request(
+            "http://www.plurk.com/APP/Timeline/getPlurks?limit=20",
+            Request.Method.POST,
+            Response.Mode.MULTIPLE
+        );
+        request.addPostParam("content", "Hello Ladies + Gentlemen, a signed OAuth request!")
+               .addPostParam("qualifier", "says");
+        
+        // Both paths must sign the same string
+        Assert.assertEquals(
+            this.getSignatureBaseWithFormat(processor, request, "token", 1318622958, "nonce"),
+            processor.getSignatureBase(request, "token", 1318622958, "nonce")
+        );
+        
+        // Warm up both paths before timing them
+        this.signWithNewMac(processor, request);
+        processor.getSignature(request, "token", "token-secret");
+        
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            this.signWithNewMac(processor, request);
+        uncachedRate = rounds * 1000000000L / (System.nanoTime() - start);
+        
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            processor.getSignature(request, "token", "token-secret");
+        cachedRate = rounds * 1000000000L / (System.nanoTime() - start);
+        
+        Assert.assertFalse(processor.getSignature(request, "token", "token-secret").isEmpty());
+        Log.d(BenchmarkTestCase.LOG_TAG, String.format(
+            "getSignature: new Mac %d/s, cached Mac %d/s",
+            uncachedRate,
+            cachedRate
+        ));
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    /**
+     * Parses the data the way it was done before JSONParser read the body as a stream: the whole
+     * document is turned into a JSONArray first
+     */
+    protected List<Model> parseAsTree(String data) throws JSONException {
+        JSONArray   array  = new JSONArray(data);
+        List<Model> models = new ArrayList<Model>();
+        
+        for (int i = 0; i < array.length(); i++)
+            models.add(new OAuthKey().fromJSON(array.getJSONObject(i)));
+        
+        return models;
+    }
+    
+    /**
+     * Encodes the value the way UrlHelper did before it had its own encoder
+     */
+    protected String percentEncodeWithReplace(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8")
+            .replace("%7E", "~")
+            .replace("*", "%2A")
+            .replace("+", "%20");
+    }
+    
+    /**
+     * Signs the request the way DefaultOAuthProcessor did before it kept its Mac instances: a Mac
+     * is looked up and initialized for every signature and the base string is built by
+     * formatting and concatenating strings
+     */
+    protected String signWithNewMac(DefaultOAuthProcessor processor, Request request)
+        throws GeneralSecurityException {
+        Mac    mac  = Mac.getInstance(processor.getSignatureAlgorithm());
+        String base = this.getSignatureBaseWithFormat(
+            processor,
+            request,
+            "token",
+            processor.getTimestamp(),
+            processor.getNonce()
+        );
+        
+        mac.init(new SecretKeySpec("consumer-secret&token-secret".getBytes(), mac.getAlgorithm()));
+        
+        return Base64.encodeToString(
+            mac.doFinal(base.getBytes()),
+            Base64.DEFAULT | Base64.NO_WRAP
+        );
+    }
+    
+    /**
+     * Builds the signature base the way DefaultOAuthProcessor did before it cached the OAuth
+     * pairs: every parameter goes through a map, each pair through String.format() and the pairs
+     * are joined with +=
+     */
+    protected String getSignatureBaseWithFormat(
+        DefaultOAuthProcessor processor, Request request,
+        String token, long timestamp, String nonce
+    ) {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        List<String>              pairs      = new ArrayList<String>();
+        Uri                       uri        = Uri.parse(request.getUrl());
+        String                    temp       = "";
+        
+        parameters.putAll(request.getPostParameters());
+        parameters.putAll(request.getQueryParameters());
+        
+        parameters.put(OAuthProcessor.NAME_CONSUMER_KEY, Arrays.asList("consumer-key"));
+        parameters.put(OAuthProcessor.NAME_TIMESTAMP, Arrays.asList(timestamp + ""));
+        parameters.put(OAuthProcessor.NAME_NONCE, Arrays.asList(nonce));
+        parameters.put(
+            OAuthProcessor.NAME_SIGNATURE_METHOD,
+            Arrays.asList(processor.getSignatureMethod())
+        );
+        parameters.put(OAuthProcessor.NAME_VERSION, Arrays.asList(processor.getOAuthVersion()));
+        parameters.put(OAuthProcessor.NAME_TOKEN, Arrays.asList(token));
+        
+        for (String key : parameters.keySet())
+            for (String value : parameters.get(key))
+                pairs.add(String.format("%s=%s",
+                    UrlHelper.percentEncode(key),
+                    UrlHelper.percentEncode(value)
+                ));
+        
+        Collections.sort(pairs);
+        
+        for (String pair : pairs)
+            temp += (temp.length() > 0 ? "&" : "") + pair;
+        
+        return String.format("%s&%s&%s",
+            UrlHelper.percentEncode(request.getMethod()),
+            UrlHelper.percentEncode(uri.getScheme() + "://" + uri.getHost() + uri.getPath()),
+            UrlHelper.percentEncode(temp)
+        );
+    }
+    
+    protected String buildModelArray(int count) {
+        StringBuilder builder = new StringBuilder("[");
+        
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(',');
+            
+            builder.append("{\"oauth_token\":\"token-").append(i)
+                   .append("\",\"oauth_token_secret\":\"secret-").append(i)
+                   .append("\",\"oauth_callback_confirmed\":true")
+                   .append(",\"extra\":[1,2.5,null,{\"a\":\"b\"}]}");
+        }
+        
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,182 @@
+package com.aeroheart.owlery.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import android.test.InstrumentationTestCase;
+
+import com.aeroheart.owlery.CircuitBreaker;
+import com.aeroheart.owlery.CircuitBreaker.State;
+import com.aeroheart.owlery.Request;
+import com.aeroheart.owlery.Response;
+import com.aeroheart.owlery.RetryPolicy;
+
+public class CircuitBreakerTestCase extends InstrumentationTestCase {
+    protected static final String HOST = "example.com";
+    
+    protected CircuitBreaker breaker;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        this.breaker = new CircuitBreaker()
+            .setWindow(4, 4)
+            .setFailureRate(0.5)
+            .setSlowCallThreshold(1000, 0.5)
+            .setOpenDuration(60000)
+            .setHalfOpenCalls(2);
+    }
+    
+    public void testOpensOnFailureRate() {
+        this.record(false, true, false);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        this.record(true);
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertFalse(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testWaitsForMinCalls() {
+        this.record(true, true, true);
+        
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testWindowSlides() {
+        this.breaker.setFailureRate(0.75);
+        
+        // The early failures leave the window as newer calls come in
+        this.record(true, true, false, false, false, false, true, true);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        this.record(true);
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testOpensOnSlowCallRate() {
+        this.breaker.record(CircuitBreakerTestCase.HOST, false, 10);
+        this.breaker.record(CircuitBreakerTestCase.HOST, false, 10);
+        this.breaker.record(CircuitBreakerTestCase.HOST, false, 5000);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        this.breaker.record(CircuitBreakerTestCase.HOST, false, 5000);
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testHalfOpenCloses() {
+        this.record(true, true, true, true);
+        this.breaker.setOpenDuration(0);
+        
+        // Only as many trials as configured go through
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        Assert.assertEquals(State.HALF_OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        Assert.assertFalse(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        
+        this.record(false);
+        Assert.assertEquals(State.HALF_OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        this.record(false);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        // The failures from before the circuit opened are forgotten
+        this.record(true, false, false);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testHalfOpenReopens() {
+        this.record(true, true, true, true);
+        this.breaker.setOpenDuration(0);
+        
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        this.breaker.setOpenDuration(60000);
+        
+        this.breaker.record(CircuitBreakerTestCase.HOST, false, 5000);
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertFalse(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testReleaseGivesBackTrial() {
+        this.breaker.setHalfOpenCalls(1);
+        this.record(true, true, true, true);
+        this.breaker.setOpenDuration(0);
+        
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        Assert.assertFalse(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        
+        this.breaker.release(CircuitBreakerTestCase.HOST);
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+    }
+    
+    public void testHostsAreIndependent() {
+        final List<String> transitions = new ArrayList<String>();
+        
+        this.breaker.addListener(new CircuitBreaker.Listener() {
+            public void onStateChange(CircuitBreaker breaker, String host, State from, State to) {
+                transitions.add(host + " " + from + " " + to);
+            }
+        });
+        
+        this.record(true, true, true, true);
+        
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertEquals(State.CLOSED, this.breaker.getState("example.org"));
+        Assert.assertTrue(this.breaker.allowRequest("example.org"));
+        
+        this.breaker.reset(CircuitBreakerTestCase.HOST);
+        Assert.assertEquals(State.CLOSED, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        Assert.assertTrue(this.breaker.allowRequest(CircuitBreakerTestCase.HOST));
+        
+        Assert.assertEquals(2, transitions.size());
+        Assert.assertEquals(CircuitBreakerTestCase.HOST + " CLOSED OPEN", transitions.get(0));
+        Assert.assertEquals(CircuitBreakerTestCase.HOST + " OPEN CLOSED", transitions.get(1));
+    }
+    
+    public void testRecordsConnectionFailures() {
+        Request request;
+        
+        this.breaker.setWindow(1, 1);
+        
+        // Fails in openConnection(), before anything is sent
+        request = new Request(
+            "unknown://" + CircuitBreakerTestCase.HOST + "/",
+            Request.Method.GET,
+            Response.Type.TEXT,
+            Response.Mode.SINGLE
+        );
+        request.setCircuitBreaker(this.breaker)
+               .execute(null, null, false);
+        
+        Assert.assertNotNull(request.getFailure());
+        Assert.assertEquals(1, request.getAttemptCount());
+        Assert.assertEquals(State.OPEN, this.breaker.getState(CircuitBreakerTestCase.HOST));
+        
+        // Fails in connect()
+        request = new Request(
+            "http://127.0.0.1:1/",
+            Request.Method.GET,
+            Response.Type.TEXT,
+            Response.Mode.SINGLE
+        );
+        request.setCircuitBreaker(this.breaker)
+               .setRetryPolicy(new RetryPolicy().setMaxAttempts(1))
+               .execute(null, null, false);
+        
+        Assert.assertNotNull(request.getFailure());
+        Assert.assertEquals(State.OPEN, this.breaker.getState("127.0.0.1"));
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected void record(boolean... outcomes) {
+        for (boolean failed : outcomes)
+            this.breaker.record(CircuitBreakerTestCase.HOST, failed, 10);
+    }
+}
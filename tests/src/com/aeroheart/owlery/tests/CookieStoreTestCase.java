@@ -0,0 +1,187 @@
+package com.aeroheart.owlery.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import android.test.InstrumentationTestCase;
+
+import com.aeroheart.owlery.Request;
+import com.aeroheart.owlery.cookie.PersistentCookieStore;
+
+public class CookieStoreTestCase extends InstrumentationTestCase {
+    protected File file;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        this.file = File.createTempFile("cookies", null);
+        this.file.delete();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        this.file.delete();
+        
+        super.tearDown();
+    }
+    
+    public void testRoundTrip() {
+        PersistentCookieStore store = new PersistentCookieStore(this.file);
+        HttpCookie            cookie;
+        List<HttpCookie>      cookies;
+        
+        cookie = new HttpCookie("sid", "a b\t%c=;");
+        cookie.setDomain(".example.com");
+        cookie.setPath("/api");
+        cookie.setMaxAge(3600);
+        cookie.setSecure(true);
+        store.add(URI.create("http://www.example.com/"), cookie);
+        
+        cookie = new HttpCookie("session", "1");
+        store.add(URI.create("http://www.example.com/"), cookie);
+        store.flush();
+        
+        store   = new PersistentCookieStore(this.file);
+        cookies = store.get(URI.create("http://www.example.com/"));
+        
+        Assert.assertEquals(2, cookies.size());
+        
+        cookie = CookieStoreTestCase.find(cookies, "sid");
+        Assert.assertEquals("a b\t%c=;", cookie.getValue());
+        Assert.assertEquals("example.com", cookie.getDomain());
+        Assert.assertEquals("/api", cookie.getPath());
+        Assert.assertTrue(cookie.getSecure());
+        Assert.assertTrue(cookie.getMaxAge() > 3500 && cookie.getMaxAge() <= 3600);
+        
+        cookie = CookieStoreTestCase.find(cookies, "session");
+        Assert.assertEquals("1", cookie.getValue());
+        Assert.assertNull(cookie.getDomain());
+        Assert.assertEquals(-1, cookie.getMaxAge());
+    }
+    
+    public void testExpiryAfterReload() throws InterruptedException {
+        PersistentCookieStore store  = new PersistentCookieStore(this.file);
+        HttpCookie            cookie = new HttpCookie("short", "1");
+        URI                   uri    = URI.create("http://example.com/");
+        
+        cookie.setMaxAge(1);
+        store.add(uri, cookie);
+        store.flush();
+        
+        Assert.assertEquals(1, new PersistentCookieStore(this.file).get(uri).size());
+        
+        Thread.sleep(1500);
+        
+        store = new PersistentCookieStore(this.file);
+        Assert.assertTrue(store.get(uri).isEmpty());
+        Assert.assertTrue(store.getCookies().isEmpty());
+    }
+    
+    public void testDomainMatching() {
+        PersistentCookieStore store  = new PersistentCookieStore(this.file);
+        HttpCookie            domain = new HttpCookie("domain", "1"),
+                              host   = new HttpCookie("host", "1");
+        
+        domain.setDomain("example.com");
+        store.add(URI.create("http://www.example.com/"), domain);
+        store.add(URI.create("http://www.example.com/"), host);
+        store.flush();
+        
+        // Matching must be the same once the cookies went through the file
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(
+                "[domain]",
+                CookieStoreTestCase.names(store, "http://example.com/")
+            );
+            Assert.assertEquals(
+                "[domain, host]",
+                CookieStoreTestCase.names(store, "http://www.example.com/")
+            );
+            Assert.assertEquals(
+                "[domain]",
+                CookieStoreTestCase.names(store, "http://a.www.example.com/")
+            );
+            Assert.assertEquals(
+                "[]",
+                CookieStoreTestCase.names(store, "http://badexample.com/")
+            );
+            Assert.assertEquals(
+                "[]",
+                CookieStoreTestCase.names(store, "http://example.org/")
+            );
+            
+            store = new PersistentCookieStore(this.file);
+        }
+    }
+    
+    public void testRemoveCookiesFor() {
+        PersistentCookieStore store  = new PersistentCookieStore(this.file);
+        HttpCookie            domain = new HttpCookie("domain", "1");
+        
+        domain.setDomain("example.com");
+        store.add(URI.create("http://www.example.com/"), domain);
+        store.add(URI.create("http://www.example.com/"), new HttpCookie("host", "1"));
+        store.add(URI.create("http://example.org/"), new HttpCookie("other", "1"));
+        
+        Request.setCookieStore(store);
+        
+        try {
+            Request.removeCookiesFor("http://www.example.com/some/path?q=1");
+            
+            Assert.assertTrue(Request.getCookiesFor("http://www.example.com/").isEmpty());
+            Assert.assertEquals(1, Request.getCookiesFor("http://example.org/").size());
+            
+            store.flush();
+            store = new PersistentCookieStore(this.file);
+            
+            Assert.assertEquals(1, store.getCookies().size());
+            Assert.assertEquals("other", store.getCookies().get(0).getName());
+        }
+        finally {
+            Request.setCookieEnabled(false);
+        }
+    }
+    
+    public void testUnreadableFile() throws IOException {
+        FileWriter writer = new FileWriter(this.file);
+        
+        writer.write("not a cookie file\n");
+        writer.close();
+        
+        Assert.assertTrue(new PersistentCookieStore(this.file).getCookies().isEmpty());
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static HttpCookie find(List<HttpCookie> cookies, String name) {
+        for (HttpCookie cookie : cookies)
+            if (cookie.getName().equals(name))
+                return cookie;
+        
+        Assert.fail("No cookie named " + name);
+        return null;
+    }
+    
+    protected static String names(PersistentCookieStore store, String url) {
+        List<String> names = new ArrayList<String>();
+        
+        for (HttpCookie cookie : store.get(URI.create(url)))
+            names.add(cookie.getName());
+        
+        Collections.sort(names);
+        
+        return names.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package com.aeroheart.owlery.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+
+import android.test.InstrumentationTestCase;
+
+import com.aeroheart.owlery.cache.DiskCache;
+
+public class DiskCacheTestCase extends InstrumentationTestCase {
+    protected File directory;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        this.directory = File.createTempFile("cache", null);
+        this.directory.delete();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = this.directory.listFiles();
+        
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        
+        this.directory.delete();
+        
+        super.tearDown();
+    }
+    
+    public void testReopenRestoresEntries() throws IOException {
+        DiskCache cache = new DiskCache(this.directory, 1024);
+        
+        DiskCacheTestCase.put(cache, "a", "meta-a", "body-a");
+        DiskCacheTestCase.put(cache, "b", "meta-b", "body-b");
+        DiskCacheTestCase.put(cache, "c", "meta-c", "body-c");
+        cache.remove("b");
+        DiskCacheTestCase.put(cache, "c", "meta-c2", "body-c2");
+        cache.close();
+        
+        cache = new DiskCache(this.directory, 1024);
+        
+        Assert.assertEquals(2, cache.getCount());
+        Assert.assertEquals(12 + 14, cache.getSize());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("meta-a|body-a", DiskCacheTestCase.read(cache, "a"));
+        Assert.assertEquals("meta-c2|body-c2", DiskCacheTestCase.read(cache, "c"));
+    }
+    
+    public void testReopenRestoresAccessOrder() throws IOException {
+        DiskCache cache = new DiskCache(this.directory, 1024);
+        
+        DiskCacheTestCase.put(cache, "a", "1", "1");
+        DiskCacheTestCase.put(cache, "b", "2", "2");
+        DiskCacheTestCase.put(cache, "c", "3", "3");
+        DiskCacheTestCase.read(cache, "a");
+        cache.close();
+        
+        // b is now the least recently used entry and the first to go
+        cache = new DiskCache(this.directory, 1024);
+        cache.setMaxSize(4);
+        
+        Assert.assertEquals(2, cache.getCount());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(DiskCacheTestCase.read(cache, "a"));
+        Assert.assertNotNull(DiskCacheTestCase.read(cache, "c"));
+    }
+    
+    public void testTruncatedJournal() throws IOException {
+        DiskCache  cache = new DiskCache(this.directory, 1024);
+        FileWriter writer;
+        
+        DiskCacheTestCase.put(cache, "a", "meta-a", "body-a");
+        cache.close();
+        
+        // A process killed in the middle of a write leaves half a line behind
+        writer = new FileWriter(new File(this.directory, "journal"), true);
+        writer.write("CLEAN b");
+        writer.close();
+        
+        cache = new DiskCache(this.directory, 1024);
+        
+        Assert.assertEquals(1, cache.getCount());
+        Assert.assertEquals("meta-a|body-a", DiskCacheTestCase.read(cache, "a"));
+        Assert.assertNull(cache.get("b"));
+        
+        // The rebuilt journal must be readable again
+        DiskCacheTestCase.put(cache, "c", "meta-c", "body-c");
+        cache.close();
+        
+        Assert.assertEquals(2, new DiskCache(this.directory, 1024).getCount());
+    }
+    
+    public void testCorruptJournal() throws IOException {
+        DiskCache  cache;
+        FileWriter writer;
+        
+        this.directory.mkdirs();
+        
+        writer = new FileWriter(new File(this.directory, "journal"));
+        writer.write("not a journal\n");
+        writer.close();
+        
+        cache = new DiskCache(this.directory, 1024);
+        
+        Assert.assertEquals(0, cache.getCount());
+        Assert.assertEquals(0, cache.getSize());
+        
+        DiskCacheTestCase.put(cache, "a", "meta-a", "body-a");
+        Assert.assertEquals("meta-a|body-a", DiskCacheTestCase.read(cache, "a"));
+    }
+    
+    public void testMissingFiles() throws IOException {
+        DiskCache cache = new DiskCache(this.directory, 1024);
+        
+        DiskCacheTestCase.put(cache, "a", "meta-a", "body-a");
+        DiskCacheTestCase.put(cache, "b", "meta-b", "body-b");
+        cache.close();
+        
+        new File(this.directory, "a.1").delete();
+        
+        cache = new DiskCache(this.directory, 1024);
+        
+        Assert.assertEquals(1, cache.getCount());
+        Assert.assertEquals(12, cache.getSize());
+        Assert.assertNull(cache.get("a"));
+    }
+    
+    public void testUncommittedEdit() throws IOException {
+        DiskCache        cache = new DiskCache(this.directory, 1024);
+        DiskCache.Editor editor;
+        OutputStream     stream;
+        
+        DiskCacheTestCase.put(cache, "a", "meta-a", "body-a");
+        
+        // Never committed, as if the process died while the response was being read
+        editor = cache.edit("a");
+        stream = editor.newBodyStream();
+        stream.write("partial".getBytes());
+        stream.close();
+        cache.close();
+        
+        cache = new DiskCache(this.directory, 1024);
+        
+        Assert.assertEquals(1, cache.getCount());
+        Assert.assertEquals("meta-a|body-a", DiskCacheTestCase.read(cache, "a"));
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    protected static void put(DiskCache cache, String key, String metadata, String body)
+        throws IOException {
+        DiskCache.Editor editor = cache.edit(key);
+        OutputStream     stream;
+        
+        stream = editor.newMetadataStream();
+        stream.write(metadata.getBytes("UTF-8"));
+        stream.close();
+        
+        stream = editor.newBodyStream();
+        stream.write(body.getBytes("UTF-8"));
+        stream.close();
+        
+        editor.commit();
+    }
+    
+    /**
+     * @return the metadata and the body of the entry separated by "|", or null if there is none
+     */
+    protected static String read(DiskCache cache, String key) throws IOException {
+        DiskCache.Snapshot snapshot = cache.get(key);
+        
+        if (snapshot == null)
+            return null;
+        
+        try {
+            return DiskCacheTestCase.read(snapshot.getMetadata()) + "|" +
+                   DiskCacheTestCase.read(snapshot.getBody());
+        }
+        finally {
+            snapshot.close();
+        }
+    }
+    
+    protected static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[256];
+        int                   count;
+        
+        while ((count = stream.read(buffer)) >= 0)
+            output.write(buffer, 0, count);
+        
+        return output.toString("UTF-8");
+    }
+}
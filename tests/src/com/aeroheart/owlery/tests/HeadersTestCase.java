@@ -0,0 +1,133 @@
+package com.aeroheart.owlery.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import android.test.InstrumentationTestCase;
+
+import com.aeroheart.owlery.Headers;
+
+public class HeadersTestCase extends InstrumentationTestCase {
+    public void testCaseInsensitiveLookup() {
+        Headers headers = HeadersTestCase.of(
+            "Content-Type", "text/plain",
+            "ETag",         "\"abc\""
+        );
+        
+        Assert.assertEquals(2, headers.size());
+        Assert.assertEquals("text/plain", headers.get("content-type"));
+        Assert.assertEquals("text/plain", headers.get("CONTENT-TYPE"));
+        Assert.assertEquals("\"abc\"", headers.get("etag"));
+        Assert.assertEquals(1, headers.indexOf("etag"));
+        Assert.assertEquals("ETag", headers.getName(1));
+    }
+    
+    public void testMissingHeader() {
+        Headers headers = HeadersTestCase.of("Content-Type", "text/plain");
+        
+        Assert.assertNull(headers.get("Content-Length"));
+        Assert.assertTrue(headers.getAll("Content-Length").isEmpty());
+        Assert.assertEquals(-1, headers.indexOf("Content-Length"));
+        Assert.assertNull(headers.get(null));
+    }
+    
+    public void testMergesNamesDifferingInCase() {
+        Headers headers = HeadersTestCase.of(
+            "Set-Cookie", "a=1",
+            "Vary",       "Accept",
+            "set-cookie", "b=2"
+        );
+        
+        Assert.assertEquals(2, headers.size());
+        Assert.assertEquals(Arrays.asList("a=1", "b=2"), headers.getAll("SET-COOKIE"));
+        Assert.assertEquals("b=2", headers.get("Set-Cookie"));
+        Assert.assertEquals(Arrays.asList("Set-Cookie", "Vary"), headers.getNames());
+    }
+    
+    public void testSkipsStatusLine() {
+        Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+        Headers                   headers;
+        
+        fields.put(null, Arrays.asList("HTTP/1.1 200 OK"));
+        fields.put("Server", Arrays.asList("test"));
+        fields.put("X-Empty", null);
+        
+        headers = Headers.of(fields);
+        
+        Assert.assertEquals(1, headers.size());
+        Assert.assertEquals("test", headers.get("server"));
+        Assert.assertSame(Headers.EMPTY, Headers.of(null));
+        Assert.assertSame(Headers.EMPTY, Headers.of(new LinkedHashMap<String, List<String>>()));
+    }
+    
+    public void testCopiesValues() {
+        Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+        List<String>              values = new ArrayList<String>();
+        Headers                   headers;
+        
+        values.add("a");
+        fields.put("X-Test", values);
+        
+        headers = Headers.of(fields);
+        values.add("b");
+        
+        Assert.assertEquals(Arrays.asList("a"), headers.getAll("x-test"));
+        
+        try {
+            headers.getAll("x-test").add("c");
+            Assert.fail("The values of a header must be read-only");
+        }
+        catch (UnsupportedOperationException exception) {}
+    }
+    
+    public void testMapView() {
+        Headers                   headers = HeadersTestCase.of(
+            "Content-Type",   "text/plain",
+            "Content-Length", "2"
+        );
+        Map<String, List<String>> map     = headers.asMap();
+        List<String>              names   = new ArrayList<String>();
+        
+        Assert.assertEquals(2, map.size());
+        Assert.assertTrue(map.containsKey("content-length"));
+        Assert.assertFalse(map.containsKey("Server"));
+        Assert.assertFalse(map.containsKey(null));
+        Assert.assertEquals(Arrays.asList("2"), map.get("CONTENT-LENGTH"));
+        Assert.assertNull(map.get("Server"));
+        
+        for (Map.Entry<String, List<String>> entry : map.entrySet())
+            names.add(entry.getKey());
+        
+        Assert.assertEquals(Arrays.asList("Content-Type", "Content-Length"), names);
+        
+        try {
+            map.put("Server", Arrays.asList("test"));
+            Assert.fail("The map view must be read-only");
+        }
+        catch (UnsupportedOperationException exception) {}
+    }
+    
+    /*
+     ***********************************************************************************************
+     * Utility Methods
+     ***********************************************************************************************
+     */
+    /**
+     * @param fields alternating names and values
+     * 
+     * @return the headers, built the same way as from a connection
+     */
+    protected static Headers of(String... fields) {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        
+        for (int idx = 0; idx < fields.length; idx += 2)
+            map.put(fields[idx], Arrays.asList(fields[idx + 1]));
+        
+        return Headers.of(map);
+    }
+}
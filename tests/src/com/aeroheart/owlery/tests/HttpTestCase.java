@@ -17,7 +17,7 @@ import com.aeroheart.owlery.model.Model;
 import com.aeroheart.owlery.util.UrlHelper;
 
 public class HttpTestCase extends InstrumentationTestCase {
-    public void ignoretestPercentEncoding() {
+    public void testPercentEncoding() {
         String encodedReserved = "%20%21%23%24%25%26%27%28%29%2A%2B%2C%2F%3A%3B%3D%3F%40%5B%5D",
                decodedReserved = " !#$%&'()*+,/:;=?@[]",
                unreserved      = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
@@ -33,6 +33,27 @@ public class HttpTestCase extends InstrumentationTestCase {
         expected = String.format("%s%s", unreserved, decodedReserved);
         actual   = String.format("%s%s", unreserved, encodedReserved);
         Assert.assertEquals(expected, UrlHelper.percentDecode(actual));
+        
+        // Characters spanning several bytes, with either case of hex digits
+        Assert.assertEquals("\u00e9", UrlHelper.percentDecode("%C3%A9"));
+        Assert.assertEquals("a\u20acb", UrlHelper.percentDecode("a%e2%82%acb"));
+        Assert.assertEquals("\ud83d\ude00!", UrlHelper.percentDecode("%F0%9F%98%80!"));
+        Assert.assertEquals("%F0%9F%98%80", UrlHelper.percentEncode("\ud83d\ude00"));
+        Assert.assertEquals("\u00e9 \u00e9", UrlHelper.percentDecode("%C3%A9%20%C3%A9"));
+        
+        // A truncated character is replaced rather than dropped
+        Assert.assertEquals("\ufffd", UrlHelper.percentDecode("%C3"));
+        
+        // Form encoding turns spaces into "+" while a literal "+" is escaped
+        Assert.assertEquals("a b+c", UrlHelper.percentDecode("a+b%2Bc"));
+        
+        for (String invalid : new String[] { "%", "abc%", "abc%4", "%zz", "%4g", "%%41" }) {
+            try {
+                UrlHelper.percentDecode(invalid);
+                Assert.fail("Decoded an invalid escape sequence: " + invalid);
+            }
+            catch (IllegalArgumentException exception) {}
+        }
     }
     
     public void ignoretestURLManipulation() {
@@ -157,7 +178,7 @@ public class HttpTestCase extends InstrumentationTestCase {
                         
                         Assert.assertEquals(
                             "http://test.server.com:8000/redirected",
-                            request.getUrl()
+                            request.getFinalUrl()
                         );
                     }
                     
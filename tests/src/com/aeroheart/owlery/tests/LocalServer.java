@@ -0,0 +1,102 @@
+package com.aeroheart.owlery.tests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A minimal HTTP server on the loopback interface for tests which need to see what goes over the
+ * wire. Each connection gets the next scripted response, the last one being repeated once the
+ * script runs out, and is closed afterwards.
+ */
+public class LocalServer implements Runnable {
+    protected ServerSocket socket;
+    protected String[]     responses;
+    protected List<String> requestLines;
+    protected Thread       thread;
+    
+    /**
+     * @param responses the status line of each response without the protocol, optionally followed
+     *                  by headers, e.g. "503 Service Unavailable\r\nRetry-After: 1"
+     * 
+     * @throws IOException
+     */
+    public LocalServer(String... responses) throws IOException {
+        this.socket       = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.responses    = responses;
+        this.requestLines = Collections.synchronizedList(new ArrayList<String>());
+        this.thread       = new Thread(this, "LocalServer");
+        
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + this.socket.getLocalPort() + path;
+    }
+    
+    /**
+     * @return the request lines received so far, e.g. "GET /path?a=1 HTTP/1.1"
+     */
+    public List<String> getRequestLines() {
+        return new ArrayList<String>(this.requestLines);
+    }
+    
+    public void close() throws IOException {
+        this.socket.close();
+    }
+    
+    public void run() {
+        while (!this.socket.isClosed()) {
+            Socket client = null;
+            
+            try {
+                BufferedReader reader;
+                OutputStream   output;
+                String         line,
+                               response;
+                int            index;
+                
+                client = this.socket.accept();
+                reader = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+                
+                line = reader.readLine();
+                if (line == null)
+                    continue;
+                
+                this.requestLines.add(line);
+                index = Math.min(this.requestLines.size(), this.responses.length) - 1;
+                
+                // Skip the headers; test requests carry no body
+                while ((line = reader.readLine()) != null && !line.isEmpty());
+                
+                response = "HTTP/1.1 " + this.responses[index] + "\r\n"
+                         + "Content-Length: 2\r\n"
+                         + "Connection: close\r\n"
+                         + "\r\n"
+                         + "ok";
+                
+                output = client.getOutputStream();
+                output.write(response.getBytes("UTF-8"));
+                output.flush();
+            }
+            catch (IOException exception) {
+                // Closed by close()
+            }
+            finally {
+                try {
+                    if (client != null)
+                        client.close();
+                }
+                catch (IOException exception) {}
+            }
+        }
+    }
+}
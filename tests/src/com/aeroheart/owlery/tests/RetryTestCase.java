@@ -0,0 +1,187 @@
+package com.aeroheart.owlery.tests;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import android.test.InstrumentationTestCase;
+
+import com.aeroheart.owlery.Request;
+import com.aeroheart.owlery.Response;
+import com.aeroheart.owlery.RetryPolicy;
+
+public class RetryTestCase extends InstrumentationTestCase {
+    public void testRetrySendsSameUrl() throws IOException {
+        LocalServer  server = new LocalServer("503 Service Unavailable", "503 Service Unavailable",
+                                              "200 OK");
+        Request      request;
+        Response     response;
+        List<String> lines;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/items?a=1&b=x%20y"),
+                Request.Method.GET,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            response = request.setRetryPolicy(new RetryPolicy().setDelays(0, 0))
+                              .execute(null, null, false);
+            lines    = server.getRequestLines();
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+            Assert.assertEquals(3, request.getAttemptCount());
+            Assert.assertEquals(3, lines.size());
+            
+            for (String line : lines)
+                Assert.assertEquals("GET /items?a=1&b=x%20y HTTP/1.1", line);
+            
+            Assert.assertEquals(server.getUrl("/items?a=1&b=x%20y"), request.getFinalUrl());
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testRetryAfter() throws IOException {
+        LocalServer server = new LocalServer("503 Service Unavailable\r\nRetry-After: 1", "200 OK");
+        Request     request;
+        Response    response;
+        long        start;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/after"),
+                Request.Method.GET,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            start    = System.currentTimeMillis();
+            response = request.setRetryPolicy(new RetryPolicy().setDelays(0, 0))
+                              .execute(null, null, false);
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_OK, response.getStatusCode());
+            Assert.assertEquals(2, request.getAttemptCount());
+            Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testRetryAfterTooLong() throws IOException {
+        LocalServer server = new LocalServer("503 Service Unavailable\r\nRetry-After: 120");
+        Request     request;
+        Response    response;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/far"),
+                Request.Method.GET,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            response = request.setRetryPolicy(new RetryPolicy())
+                              .execute(null, null, false);
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.getStatusCode());
+            Assert.assertEquals(1, server.getRequestLines().size());
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testRetryAfterOverflow() throws IOException {
+        LocalServer server = new LocalServer(
+            "503 Service Unavailable\r\nRetry-After: 9223372036854776",
+            "200 OK"
+        );
+        Request     request;
+        Response    response;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/overflow"),
+                Request.Method.GET,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            response = request.setRetryPolicy(new RetryPolicy())
+                              .execute(null, null, false);
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.getStatusCode());
+            Assert.assertEquals(1, server.getRequestLines().size());
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testNoRetryOfPost() throws IOException {
+        LocalServer server = new LocalServer("503 Service Unavailable", "200 OK");
+        Request     request;
+        Response    response;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/post"),
+                Request.Method.POST,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            response = request.setRetryPolicy(new RetryPolicy().setDelays(0, 0))
+                              .execute(null, null, false);
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.getStatusCode());
+            Assert.assertEquals(1, server.getRequestLines().size());
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testNoRetryOfOAuthSignedRequest() throws IOException {
+        LocalServer server = new LocalServer("503 Service Unavailable", "200 OK");
+        Request     request;
+        Response    response;
+        
+        try {
+            request  = new Request(
+                server.getUrl("/signed"),
+                Request.Method.GET,
+                Response.Type.TEXT,
+                Response.Mode.SINGLE
+            );
+            request.addHeader(
+                "Authorization",
+                "OAuth oauth_nonce=\"kllo9940pd9333jh\", oauth_timestamp=\"1191242096\""
+            );
+            response = request.setRetryPolicy(new RetryPolicy().setDelays(0, 0))
+                              .execute(null, null, false);
+            
+            Assert.assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.getStatusCode());
+            Assert.assertEquals(1, server.getRequestLines().size());
+        }
+        finally {
+            server.close();
+        }
+    }
+    
+    public void testDelayBounds() {
+        RetryPolicy policy   = new RetryPolicy().setDelays(100, 1000);
+        Response    response = new Response(Response.Type.TEXT, Response.Mode.SINGLE, null);
+        
+        for (int i = 0; i < 100; i++) {
+            long first  = policy.getDelay(response, 1),
+                 second = policy.getDelay(response, 2),
+                 capped = policy.getDelay(response, 10);
+            
+            Assert.assertTrue(first >= 0 && first < 100);
+            Assert.assertTrue(second >= 0 && second < 200);
+            Assert.assertTrue(capped >= 0 && capped < 1000);
+        }
+    }
+}